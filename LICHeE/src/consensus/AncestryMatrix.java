@@ -0,0 +1,339 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Ancestor-descendant frequencies of mutation groups over an ensemble of trees.
+ *
+ * Entry (i, j) is the total weight of the trees in which mutationGroups.get(i) is a proper
+ * ancestor of mutationGroups.get(j). For each tree, the descendants of every group are
+ * collected as packed bit rows in one bottom-up pass and then added to the matrix.
+ * Trees can be added in parallel: each worker thread accumulates into its own counters,
+ * which are merged into the matrix when all trees are done.
+ *
+ * The ancestor-descendant consensus tree places every group under its deepest ancestor
+ * of frequency at least minFrequency.
+ */
+public class AncestryMatrix {
+	private static final int MIN_TASK_SIZE = 16;
+
+	private final ArrayList<PHYNode> mutationGroups;
+	private final int n;
+	private final int words;
+
+	/** Mutation group index of each node id, or -1 */
+	private final int[] nodeId2Group;
+
+	private final Counters counters;
+
+	public AncestryMatrix(ArrayList<PHYNode> mutationGroups) {
+		this.mutationGroups = mutationGroups;
+		n = mutationGroups.size();
+		words = Math.max(PackedCluster.numWords(n), 1);
+		int maxId = -1;
+		for (PHYNode g : mutationGroups) {
+			maxId = Math.max(maxId, g.getNodeId());
+		}
+		nodeId2Group = new int[maxId + 1];
+		Arrays.fill(nodeId2Group, -1);
+		for (int i = 0; i < n; i++) {
+			nodeId2Group[mutationGroups.get(i).getNodeId()] = i;
+		}
+		counters = new Counters();
+	}
+
+	public ArrayList<PHYNode> getMutationGroups() {
+		return mutationGroups;
+	}
+
+	public int getNumTrees() {
+		return counters.numTrees;
+	}
+
+	public double getTotalWeight() {
+		return counters.totalWeight;
+	}
+
+	/** Returns the total weight of the trees in which group i is an ancestor of group j */
+	public double getCount(int i, int j) {
+		return counters.ancestry[i * n + j];
+	}
+
+	/** Returns the fraction of the ensemble weight in which group i is an ancestor of group j */
+	public double getFrequency(int i, int j) {
+		return counters.totalWeight == 0 ? 0 : counters.ancestry[i * n + j] / counters.totalWeight;
+	}
+
+	/** Returns the total weight of the trees containing group i */
+	public double getPresence(int i) {
+		return counters.presence[i];
+	}
+
+	private int getGroup(PHYNode node) {
+		int id = node.getNodeId();
+		return id < nodeId2Group.length ? nodeId2Group[id] : -1;
+	}
+
+	/**
+	 * Per-thread counters and scratch space
+	 */
+	private class Counters {
+		final double[] ancestry = new double[n * n];
+		final double[] presence = new double[n];
+		int numTrees;
+		double totalWeight;
+
+		// scratch: nodes with parents first, their groups and descendant rows
+		int[] order = new int[0];
+		int[] parents = new int[0];
+		int[] groups = new int[0];
+		long[] rows = new long[0];
+
+		void ensureCapacity(int numNodes) {
+			if (order.length < numNodes) {
+				order = new int[numNodes];
+				parents = new int[numNodes];
+				groups = new int[numNodes];
+				rows = new long[numNodes * words];
+			}
+		}
+
+		void add(PHYTree tree) {
+			ensureCapacity(tree.getNumNodes());
+			int size = 0;
+			for (int v = tree.getFirstNodeId(); v != -1; v = tree.getNextNodeId(v)) {
+				if (tree.getParentId(v) != -1) {
+					continue;
+				}
+				// breadth-first from each root, so that parents come first
+				order[size] = v;
+				parents[size++] = -1;
+				for (int head = size - 1; head < size; head++) {
+					for (int c = tree.getFirstChildId(order[head]); c != -1; c = tree.getNextSiblingId(c)) {
+						order[size] = c;
+						parents[size++] = head;
+					}
+				}
+			}
+			for (int i = 0; i < size; i++) {
+				groups[i] = getGroup(tree.getNode(order[i]));
+			}
+			accumulate(size, tree.getWeight());
+		}
+
+		void add(TreeView tree) {
+			int size = tree.getNumNodes();
+			ensureCapacity(size);
+			for (int i = 0; i < size; i++) {
+				parents[i] = tree.getParent(i);
+				groups[i] = getGroup(tree.getNode(i));
+			}
+			accumulate(size, tree.getWeight());
+		}
+
+		/**
+		 * Collects the descendant groups of every node bottom-up and adds the tree
+		 * @requires the parent of each of the size nodes comes before it
+		 */
+		private void accumulate(int size, double weight) {
+			numTrees++;
+			totalWeight += weight;
+			Arrays.fill(rows, 0, size * words, 0);
+			for (int i = size - 1; i >= 0; i--) {
+				int p = parents[i];
+				int g = groups[i];
+				if (g != -1) {
+					presence[g] += weight;
+					// the descendants of group g are complete
+					int offset = g * n;
+					for (int w = 0; w < words; w++) {
+						for (long bits = rows[i * words + w]; bits != 0; bits &= bits - 1) {
+							ancestry[offset + (w << 6) + Long.numberOfTrailingZeros(bits)] += weight;
+						}
+					}
+				}
+				if (p != -1) {
+					for (int w = 0; w < words; w++) {
+						rows[p * words + w] |= rows[i * words + w];
+					}
+					if (g != -1) {
+						rows[p * words + (g >>> 6)] |= 1L << g;
+					}
+				}
+			}
+		}
+
+		void addAll(Counters c) {
+			for (int k = 0; k < ancestry.length; k++) {
+				ancestry[k] += c.ancestry[k];
+			}
+			for (int k = 0; k < n; k++) {
+				presence[k] += c.presence[k];
+			}
+			numTrees += c.numTrees;
+			totalWeight += c.totalWeight;
+		}
+	}
+
+	public void addTree(PHYTree tree) {
+		counters.add(tree);
+	}
+
+	public void addTree(TreeView tree) {
+		counters.add(tree);
+	}
+
+	/**
+	 * Adds the trees with up to parallelism threads
+	 */
+	public void addTrees(final List<PHYTree> trees, int parallelism) {
+		if (parallelism <= 1) {
+			for (PHYTree tree : trees) {
+				counters.add(tree);
+			}
+			return;
+		}
+		addTrees(trees.size(), parallelism, new TreeSource() {
+			public void add(Counters c, int t) {
+				c.add(trees.get(t));
+			}
+		});
+	}
+
+	/**
+	 * Adds all trees of an ensemble file with up to parallelism threads, reading them as views
+	 */
+	public void addTrees(final TreeEnsembleReader reader, int parallelism) {
+		if (parallelism <= 1) {
+			for (int t = 0; t < reader.getNumTrees(); t++) {
+				counters.add(reader.getTree(t));
+			}
+			return;
+		}
+		addTrees(reader.getNumTrees(), parallelism, new TreeSource() {
+			public void add(Counters c, int t) {
+				c.add(reader.getTree(t));
+			}
+		});
+	}
+
+	private interface TreeSource {
+		void add(Counters c, int t);
+	}
+
+	private void addTrees(int numTrees, int parallelism, final TreeSource source) {
+		final ArrayList<Counters> all = new ArrayList<Counters>();
+		final ThreadLocal<Counters> local = new ThreadLocal<Counters>() {
+			protected Counters initialValue() {
+				Counters c = new Counters();
+				synchronized (all) {
+					all.add(c);
+				}
+				return c;
+			}
+		};
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new TreeTask(0, numTrees, source, local));
+		} finally {
+			pool.shutdown();
+		}
+		for (Counters c : all) {
+			counters.addAll(c);
+		}
+	}
+
+	/**
+	 * Adds trees start..end-1, splitting the range
+	 */
+	private class TreeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int start;
+		private final int end;
+		private final TreeSource source;
+		private final ThreadLocal<Counters> local;
+
+		TreeTask(int start, int end, TreeSource source, ThreadLocal<Counters> local) {
+			this.start = start;
+			this.end = end;
+			this.source = source;
+			this.local = local;
+		}
+
+		protected void compute() {
+			if (end - start <= MIN_TASK_SIZE) {
+				Counters c = local.get();
+				for (int t = start; t < end; t++) {
+					source.add(c, t);
+				}
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new TreeTask(start, mid, source, local), new TreeTask(mid, end, source, local));
+			}
+		}
+	}
+
+	/**
+	 * Builds the ancestor-descendant consensus tree: every group present in the ensemble
+	 * hangs from its deepest ancestor i with getFrequency(i, j) >= minFrequency, or from
+	 * the root if it has none. The depth of a group is its number of such ancestors, and a
+	 * parent is always shallower than its child, so the result is a tree.
+	 * @param minFrequency - above 0.5 for a majority-rule consensus
+	 */
+	public PHYTree getConsensusTree(PHYNode root, double minFrequency) {
+		double min = minFrequency * counters.totalWeight;
+		int[] depth = new int[n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (counters.ancestry[i * n + j] > 0 && counters.ancestry[i * n + j] >= min) {
+					depth[j]++;
+				}
+			}
+		}
+		Integer[] order = new Integer[n];
+		for (int j = 0; j < n; j++) {
+			order[j] = j;
+		}
+		final int[] byDepth = depth;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return byDepth[a] - byDepth[b];
+			}
+		});
+
+		PHYTree tree = new PHYTree();
+		tree.addNode(root);
+		for (int k = 0; k < n; k++) {
+			int j = order[k];
+			if (counters.presence[j] == 0) {
+				continue;
+			}
+			int parent = -1;
+			for (int i = 0; i < n; i++) {
+				double count = counters.ancestry[i * n + j];
+				if (count == 0 || count < min || depth[i] >= depth[j] || counters.presence[i] == 0) {
+					continue;
+				}
+				if (parent == -1 || depth[i] > depth[parent]
+						|| (depth[i] == depth[parent] && count > counters.ancestry[parent * n + j])) {
+					parent = i;
+				}
+			}
+			PHYNode node = mutationGroups.get(j);
+			tree.addNode(node);
+			tree.addEdge(parent == -1 ? root : mutationGroups.get(parent), node);
+		}
+		return tree;
+	}
+}
@@ -15,6 +15,10 @@ public class CNEdge {
 	private double confidence = 1;
 	private boolean isReticulate = false;
 	
+	/** Frozen graph holding this edge's attributes, or null while the network is being built */
+	private CNGraph graph;
+	int edgeId = -1;
+	
 	public CNEdge(CNNode from, CNNode to) {
 		this.from = from;
 		this.to = to;
@@ -26,6 +30,16 @@ public class CNEdge {
 		this.confidence = confidence;
 	}
 
+	/**
+	 * View of edge edgeId of a frozen graph; attributes are read from and written to the graph
+	 */
+	CNEdge(CNNode from, CNNode to, CNGraph graph, int edgeId) {
+		this.from = from;
+		this.to = to;
+		this.graph = graph;
+		this.edgeId = edgeId;
+	}
+
 	public CNNode getSource() {
 		return this.from;
 	}
@@ -35,19 +49,27 @@ public class CNEdge {
 	}
 
 	public double getConfidence() {
-		return confidence;
+		return graph == null ? confidence : graph.edgeConfidence[edgeId];
 	}
 
 	public void setConfidence(double confidence) {
-		this.confidence = confidence;
+		if (graph == null) {
+			this.confidence = confidence;
+		} else {
+			graph.edgeConfidence[edgeId] = confidence;
+		}
 	}
 
 	public boolean isReticulate() {
-		return isReticulate;
+		return graph == null ? isReticulate : graph.edgeReticulate[edgeId];
 	}
 
 	public void setReticulate() {
-		isReticulate = true;
+		if (graph == null) {
+			isReticulate = true;
+		} else {
+			graph.edgeReticulate[edgeId] = true;
+		}
 	}
 	
 	public boolean equals(Object o) {
@@ -62,7 +84,11 @@ public class CNEdge {
 		}
 	}
 
+	public int hashCode() {
+		return 31 * from.hashCode() + to.hashCode();
+	}
+
 	public String toString() {
-		return from.getId() + " to " + to.getId() + " (" + confidence + ", " + isReticulate + ")";
+		return from.getId() + " to " + to.getId() + " (" + getConfidence() + ", " + isReticulate() + ")";
 	}
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+
+/**
+ * Frozen adjacency of a cluster network in compressed sparse row form.
+ *
+ * Nodes and edges are dense int ids. The out-edges of node v occupy positions
+ * outOffsets[v]..outOffsets[v+1]-1 of outTargets/outEdgeIds, and likewise for in-edges,
+ * which keep the order in which they were added to the network.
+ * Edge attributes are stored in parallel primitive arrays indexed by edge id.
+ */
+public class CNGraph {
+	final int numNodes;
+	final int numEdges;
+
+	final int[] outOffsets;
+	final int[] outTargets;
+	final int[] outEdgeIds;
+	final int[] inOffsets;
+	final int[] inSources;
+	final int[] inEdgeIds;
+
+	final int[] edgeSource;
+	final int[] edgeTarget;
+	final double[] edgeConfidence;
+	final boolean[] edgeReticulate;
+
+	/**
+	 * Creates the graph from edge arrays, with the in-edges of each node listed
+	 * in the order given by inOrder (a permutation of the edge ids)
+	 */
+	CNGraph(int numNodes, int[] edgeSource, int[] edgeTarget, double[] edgeConfidence,
+			boolean[] edgeReticulate, int[] inOrder) {
+		this.numNodes = numNodes;
+		this.numEdges = edgeSource.length;
+		this.edgeSource = edgeSource;
+		this.edgeTarget = edgeTarget;
+		this.edgeConfidence = edgeConfidence;
+		this.edgeReticulate = edgeReticulate;
+
+		outOffsets = new int[numNodes + 1];
+		inOffsets = new int[numNodes + 1];
+		for (int e = 0; e < numEdges; e++) {
+			outOffsets[edgeSource[e] + 1]++;
+			inOffsets[edgeTarget[e] + 1]++;
+		}
+		for (int v = 0; v < numNodes; v++) {
+			outOffsets[v + 1] += outOffsets[v];
+			inOffsets[v + 1] += inOffsets[v];
+		}
+
+		outTargets = new int[numEdges];
+		outEdgeIds = new int[numEdges];
+		inSources = new int[numEdges];
+		inEdgeIds = new int[numEdges];
+		int[] outNext = new int[numNodes];
+		int[] inNext = new int[numNodes];
+		for (int e = 0; e < numEdges; e++) {
+			int u = edgeSource[e];
+			int k = outOffsets[u] + outNext[u]++;
+			outTargets[k] = edgeTarget[e];
+			outEdgeIds[k] = e;
+		}
+		for (int n = 0; n < numEdges; n++) {
+			int e = inOrder[n];
+			int v = edgeTarget[e];
+			int k = inOffsets[v] + inNext[v]++;
+			inSources[k] = edgeSource[e];
+			inEdgeIds[k] = e;
+		}
+	}
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	public int getNumEdges() {
+		return numEdges;
+	}
+
+	public int getOutDegree(int v) {
+		return outOffsets[v + 1] - outOffsets[v];
+	}
+
+	public int getInDegree(int v) {
+		return inOffsets[v + 1] - inOffsets[v];
+	}
+
+	/** Returns the id of the k-th out-edge of v */
+	public int getOutEdge(int v, int k) {
+		return outEdgeIds[outOffsets[v] + k];
+	}
+
+	/** Returns the id of the k-th in-edge of v */
+	public int getInEdge(int v, int k) {
+		return inEdgeIds[inOffsets[v] + k];
+	}
+
+	public int getSource(int e) {
+		return edgeSource[e];
+	}
+
+	public int getTarget(int e) {
+		return edgeTarget[e];
+	}
+
+	public double getConfidence(int e) {
+		return edgeConfidence[e];
+	}
+
+	public void setConfidence(int e, double confidence) {
+		edgeConfidence[e] = confidence;
+	}
+
+	public boolean isReticulate(int e) {
+		return edgeReticulate[e];
+	}
+}
@@ -44,11 +44,23 @@ public class CNNode {
 		this.label = nodes;
 	}
 
+	public ArrayList<PHYNode> getLabel() {
+		return label;
+	}
+
+	public double getConfidence() {
+		return confidence;
+	}
+
+	public void setConfidence(double confidence) {
+		this.confidence = confidence;
+	}
+
 	public String toString() {
-		String ret = nodeId + " (" + confidence + "): ";
+		StringBuilder ret = new StringBuilder().append(nodeId).append(" (").append(confidence).append("): ");
 		for (PHYNode n : label) {
-			ret += n.toString();
+			ret.append(n);
 		}
-		return ret;
+		return ret.toString();
 	}
 }
\ No newline at end of file
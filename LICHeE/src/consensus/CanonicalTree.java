@@ -0,0 +1,244 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Canonical form of a tree topology, with a 128-bit hash.
+ *
+ * Nodes are keyed by identity rather than position: a mutation group by its node id,
+ * a sample leaf by its sample id and the root by its kind. Children are ordered by key
+ * (ties, which only arise for repeated keys, by subtree hash), so two trees have the same
+ * canonical form if and only if they are the same labeled tree, whatever the order in which
+ * their nodes and edges were added. The encoding lists (key, number of children) for every
+ * node in this canonical pre-order; the hash is computed bottom-up over the same order.
+ *
+ * Equality compares the hashes and then the encodings, so distinct topologies are never merged.
+ */
+public class CanonicalTree {
+	private static final int ROOT_KEY = -1;
+	private static final int FOREST_KEY = Integer.MIN_VALUE;
+
+	private final int[] encoding;
+	private final long hashHigh;
+	private final long hashLow;
+
+	/**
+	 * Canonical form of all nodes of a tree
+	 */
+	public CanonicalTree(PHYTree tree) {
+		int capacity = tree.getIdCapacity();
+		int[] position = new int[capacity];
+		int n = tree.getNumNodes();
+		int[] keys = new int[n];
+		int[] parents = new int[n];
+		int i = 0;
+		for (int v = tree.getFirstNodeId(); v != -1; v = tree.getNextNodeId(v)) {
+			position[v] = i;
+			keys[i++] = getKey(tree.getNode(v));
+		}
+		i = 0;
+		for (int v = tree.getFirstNodeId(); v != -1; v = tree.getNextNodeId(v)) {
+			int p = tree.getParentId(v);
+			parents[i++] = (p == -1 ? -1 : position[p]);
+		}
+		long[] hash = new long[2];
+		encoding = encode(n, keys, parents, hash);
+		hashHigh = hash[0];
+		hashLow = hash[1];
+	}
+
+	/**
+	 * Canonical form of a tree of an ensemble file, read without building a PHYTree
+	 */
+	public CanonicalTree(TreeView tree) {
+		int n = tree.getNumNodes();
+		int[] keys = new int[n];
+		int[] parents = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = getKey(tree.getNode(i));
+			parents[i] = tree.getParent(i);
+		}
+		long[] hash = new long[2];
+		encoding = encode(n, keys, parents, hash);
+		hashHigh = hash[0];
+		hashLow = hash[1];
+	}
+
+	private static int getKey(PHYNode n) {
+		if (n.isRoot()) {
+			return ROOT_KEY;
+		}
+		if (n.isLeaf()) {
+			return -2 - n.getLeafSampleId();
+		}
+		return n.getNodeId();
+	}
+
+	/**
+	 * Sorts the children of every node into canonical order and returns the encoding;
+	 * parentless nodes hang off a virtual node so that forests are handled too
+	 */
+	private static int[] encode(int n, int[] keys, int[] parents, long[] hash) {
+		// children lists, with the virtual node n as the parent of the roots
+		int[] childStart = new int[n + 3];
+		for (int i = 0; i < n; i++) {
+			childStart[(parents[i] == -1 ? n : parents[i]) + 2]++;
+		}
+		for (int v = 0; v <= n; v++) {
+			childStart[v + 2] += childStart[v + 1];
+		}
+		int[] children = new int[n];
+		for (int i = 0; i < n; i++) {
+			children[childStart[(parents[i] == -1 ? n : parents[i]) + 1]++] = i;
+		}
+
+		// pre-order in input order, reversed to visit children before parents
+		int[] order = new int[n + 1];
+		int[] stack = new int[n + 1];
+		int size = 0;
+		int top = 0;
+		stack[top++] = n;
+		while (top > 0) {
+			int v = stack[--top];
+			order[size++] = v;
+			for (int k = childStart[v]; k < childStart[v + 1]; k++) {
+				stack[top++] = children[k];
+			}
+		}
+		if (size != n + 1) {
+			throw new IllegalArgumentException("Tree has a cycle");
+		}
+
+		long[] high = new long[n + 1];
+		long[] low = new long[n + 1];
+		long[] sortKeys = new long[0];
+		for (int j = n; j >= 0; j--) {
+			int v = order[j];
+			int from = childStart[v];
+			int to = childStart[v + 1];
+			if (sortKeys.length < to - from) {
+				sortKeys = new long[to - from];
+			}
+			for (int k = from; k < to; k++) {
+				sortKeys[k - from] = ((long) keys[children[k]] << 32) | children[k];
+			}
+			Arrays.sort(sortKeys, 0, to - from);
+			for (int k = from; k < to; k++) {
+				children[k] = (int) sortKeys[k - from];
+			}
+			// break ties between equal keys by subtree hash
+			for (int k = from + 1; k < to; k++) {
+				int c = children[k];
+				int m = k - 1;
+				while (m >= from && keys[children[m]] == keys[c] && compare(high, low, children[m], c) > 0) {
+					children[m + 1] = children[m];
+					m--;
+				}
+				children[m + 1] = c;
+			}
+
+			int key = (v == n ? FOREST_KEY : keys[v]);
+			long h = mix(key * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L);
+			long l = mix(key * 0xC2B2AE3D27D4EB4FL + 0x165667B19E3779F9L);
+			for (int k = from; k < to; k++) {
+				int c = children[k];
+				h = mix(h * 0xFF51AFD7ED558CCDL + high[c]);
+				l = mix(l * 0xC4CEB9FE1A85EC53L + low[c]);
+			}
+			high[v] = mix(h ^ (to - from));
+			low[v] = mix(l ^ ((long) (to - from) << 32));
+		}
+		hash[0] = high[n];
+		hash[1] = low[n];
+
+		// canonical pre-order
+		int[] encoding = new int[2 * (n + 1)];
+		int length = 0;
+		top = 0;
+		stack[top++] = n;
+		while (top > 0) {
+			int v = stack[--top];
+			encoding[length++] = (v == n ? FOREST_KEY : keys[v]);
+			encoding[length++] = childStart[v + 1] - childStart[v];
+			for (int k = childStart[v + 1] - 1; k >= childStart[v]; k--) {
+				stack[top++] = children[k];
+			}
+		}
+		return encoding;
+	}
+
+	private static int compare(long[] high, long[] low, int a, int b) {
+		int c = Long.compare(high[a], high[b]);
+		return c != 0 ? c : Long.compare(low[a], low[b]);
+	}
+
+	/** 64-bit finalizer of MurmurHash3 */
+	private static long mix(long x) {
+		x ^= x >>> 33;
+		x *= 0xFF51AFD7ED558CCDL;
+		x ^= x >>> 33;
+		x *= 0xC4CEB9FE1A85EC53L;
+		x ^= x >>> 33;
+		return x;
+	}
+
+	public long getHashHigh() {
+		return hashHigh;
+	}
+
+	public long getHashLow() {
+		return hashLow;
+	}
+
+	/** Returns the number of nodes in the tree */
+	public int getNumNodes() {
+		return encoding.length / 2 - 1;
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof CanonicalTree)) {
+			return false;
+		}
+		CanonicalTree t = (CanonicalTree) o;
+		return hashHigh == t.hashHigh && hashLow == t.hashLow && Arrays.equals(encoding, t.encoding);
+	}
+
+	public int hashCode() {
+		return (int) hashLow;
+	}
+
+	public String toString() {
+		return String.format("%016x%016x", hashHigh, hashLow);
+	}
+
+	/**
+	 * Collapses identical topologies into one tree each, in order of first occurrence.
+	 * The weight of each distinct tree is the sum of the weights of its copies,
+	 * so it is their multiplicity for unweighted trees; the input trees are not modified.
+	 */
+	public static ArrayList<PHYTree> deduplicate(List<PHYTree> trees) {
+		HashMap<CanonicalTree, PHYTree> distinct = new HashMap<CanonicalTree, PHYTree>();
+		ArrayList<PHYTree> result = new ArrayList<PHYTree>();
+		for (PHYTree tree : trees) {
+			CanonicalTree key = new CanonicalTree(tree);
+			PHYTree first = distinct.get(key);
+			if (first == null) {
+				first = tree.clone();
+				distinct.put(key, first);
+				result.add(first);
+			} else {
+				first.setWeight(first.getWeight() + tree.getWeight());
+			}
+		}
+		return result;
+	}
+}
@@ -14,26 +14,26 @@ public class Cluster extends BitSet {
 	int id;
 	double weight;
 	double confidence;
-	final List<Integer> treeNumbers;
+	final CompressedIntSet treeNumbers;
 
 	public Cluster() {
 		super();
 		weight = 1;
 		confidence = 1;
-		this.treeNumbers = new LinkedList<>();
+		this.treeNumbers = new CompressedIntSet();
 	}
 
 	public Cluster(BitSet A) {
 		super();
 		or(A);
-		this.treeNumbers = new LinkedList<>();
+		this.treeNumbers = new CompressedIntSet();
 	}
 
 	public Cluster(BitSet A, double weight) {
 		super();
 		or(A);
 		this.weight = weight;
-		this.treeNumbers = new LinkedList<>();
+		this.treeNumbers = new CompressedIntSet();
 	}
 
 	public Cluster(BitSet A, double weight, int id) {
@@ -41,7 +41,7 @@ public class Cluster extends BitSet {
 		or(A);
 		this.weight = weight;
 		this.id = id;
-		this.treeNumbers = new LinkedList<>();
+		this.treeNumbers = new CompressedIntSet();
 	}
 
 	public Cluster(BitSet A, double weight, double confidence, int id) {
@@ -50,7 +50,7 @@ public class Cluster extends BitSet {
 		this.weight = weight;
 		this.confidence = confidence;
 		this.id = id;
-		this.treeNumbers = new LinkedList<>();
+		this.treeNumbers = new CompressedIntSet();
 	}
 
 	public Cluster(BitSet A, double weight, double confidence, int id, List<Integer> treeNumbers) {
@@ -59,18 +59,75 @@ public class Cluster extends BitSet {
 		this.weight = weight;
 		this.confidence = confidence;
 		this.id = id;
-		this.treeNumbers = new LinkedList<>();
-		this.treeNumbers.addAll(treeNumbers);
+		this.treeNumbers = new CompressedIntSet(treeNumbers);
+	}
+
+	public Cluster(BitSet A, double weight, double confidence, int id, CompressedIntSet treeNumbers) {
+		super();
+		or(A);
+		this.weight = weight;
+		this.confidence = confidence;
+		this.id = id;
+		this.treeNumbers = new CompressedIntSet(treeNumbers);
 	}
 
 	public Object clone() {
-		return new Cluster(this, this.getWeight(), this.getConfidence(), this.getId(), this.getTreeNumbers());
+		return new Cluster(this, this.getWeight(), this.getConfidence(), this.getId(), this.treeNumbers);
 	}
 
+	/**
+	 * get a fixed-width, word-packed copy of this cluster for allocation-free set tests
+	 *
+	 * @param numTaxa
+	 * @return packed cluster
+	 */
+	public PackedCluster pack(int numTaxa) {
+		return new PackedCluster(this, numTaxa);
+	}
+
+	/**
+	 * get the numbers of the trees containing this cluster, in increasing order.
+	 * The list is a read-only copy; tree numbers are added with addTreeNumber
+	 *
+	 * @return tree numbers
+	 */
 	public List<Integer> getTreeNumbers() {
+		return Collections.unmodifiableList(treeNumbers.toList());
+	}
+
+	/**
+	 * get the compressed set of numbers of the trees containing this cluster
+	 *
+	 * @return tree number set
+	 */
+	public CompressedIntSet getTreeSet() {
 		return treeNumbers;
 	}
 
+	public void addTreeNumber(int treeNumber) {
+		treeNumbers.add(treeNumber);
+	}
+
+	/**
+	 * get the number of trees containing this cluster
+	 *
+	 * @return number of trees
+	 */
+	public int getNumTrees() {
+		return treeNumbers.cardinality();
+	}
+
+	/**
+	 * computes the number of trees that contain both A and B
+	 *
+	 * @param A
+	 * @param B
+	 * @return number of shared trees
+	 */
+	public static int getNumSharedTrees(Cluster A, Cluster B) {
+		return CompressedIntSet.intersectionCardinality(A.treeNumbers, B.treeNumbers);
+	}
+
 	public double getWeight() {
 		return weight;
 	}
@@ -109,9 +166,11 @@ public class Cluster extends BitSet {
 	static public Comparator<Cluster> getComparator() {
 		return new Comparator<Cluster>() {
 			public int compare(Cluster cluster1, Cluster cluster2) {
-				if (cluster1.cardinality() > cluster2.cardinality())
+				int cardinality1 = cluster1.cardinality();
+				int cardinality2 = cluster2.cardinality();
+				if (cardinality1 > cardinality2)
 					return -1;
-				else if (cluster1.cardinality() < cluster2.cardinality())
+				else if (cardinality1 < cardinality2)
 					return 1;
 
 				int t1 = cluster1.nextSetBit(0);
@@ -197,8 +256,8 @@ public class Cluster extends BitSet {
 	 * @return
 	 */
 	public static boolean incompatible(BitSet A, BitSet B) {
-		return setminus(A, B).cardinality() > 0 && setminus(B, A).cardinality() > 0
-				&& intersection(A, B).cardinality() > 0;
+		// equivalent to testing A \ B, B \ A and A & B for non-emptiness, without building the sets
+		return A.intersects(B) && !contains(A, B) && !contains(B, A);
 	}
 
 	/**
@@ -277,15 +336,107 @@ public class Cluster extends BitSet {
 	}
 
 	/**
-	 * get clusters sorted by decreasing cardinality
+	 * get clusters sorted by decreasing cardinality, in the order of getComparator().
+	 * Equal clusters are merged into one, summing weights and confidences and uniting tree numbers.
+	 * The cardinality and words of each cluster are computed once; clusters are bucketed by
+	 * cardinality and only clusters within a bucket are compared, word by word.
 	 *
 	 * @param clusters
 	 * @return sorted clusters
 	 */
 	public static ArrayList<Cluster> getClustersSortedByDecreasingCardinality(ArrayList<Cluster> clusters) {
-		Set<Cluster> sorted = new TreeSet<>(Cluster.getComparator());
-		sorted.addAll(clusters);
-		return new ArrayList<Cluster>(sorted);
+		int n = clusters.size();
+		long[][] words = new long[n][];
+		long[] keys = new long[n];
+		int[] cardinality = new int[n];
+		int maxCardinality = 0;
+		for (int i = 0; i < n; i++) {
+			words[i] = clusters.get(i).toLongArray();
+			for (long w : words[i])
+				cardinality[i] += Long.bitCount(w);
+			// reversed first word: a larger unsigned key means a smaller lowest element
+			keys[i] = words[i].length == 0 ? 0 : Long.reverse(words[i][0]);
+			maxCardinality = Math.max(maxCardinality, cardinality[i]);
+		}
+
+		// bucket sort by decreasing cardinality
+		int[] bucketStart = new int[maxCardinality + 2];
+		for (int i = 0; i < n; i++)
+			bucketStart[maxCardinality - cardinality[i] + 1]++;
+		for (int b = 1; b < bucketStart.length; b++)
+			bucketStart[b] += bucketStart[b - 1];
+		int[] order = new int[n];
+		int[] next = bucketStart.clone();
+		for (int i = 0; i < n; i++)
+			order[next[maxCardinality - cardinality[i]]++] = i;
+
+		// sort each bucket lexicographically
+		int[] tmp = new int[n];
+		for (int b = 0; b <= maxCardinality; b++)
+			sortByWords(order, tmp, bucketStart[b], bucketStart[b + 1], keys, words);
+
+		// merge runs of equal clusters
+		ArrayList<Cluster> sorted = new ArrayList<Cluster>(n);
+		for (int i = 0; i < n; ) {
+			int j = i + 1;
+			while (j < n && compareWords(order[i], order[j], keys, words) == 0)
+				j++;
+			Cluster first = clusters.get(order[i]);
+			if (j == i + 1) {
+				sorted.add(first);
+			} else {
+				Cluster merged = (Cluster) first.clone();
+				for (int k = i + 1; k < j; k++) {
+					Cluster other = clusters.get(order[k]);
+					merged.setWeight(merged.getWeight() + other.getWeight());
+					merged.setConfidence(merged.getConfidence() + other.getConfidence());
+					merged.getTreeSet().or(other.getTreeSet());
+				}
+				sorted.add(merged);
+			}
+			i = j;
+		}
+		return sorted;
+	}
+
+	/**
+	 * stable merge sort of order[from..to) by the lexicographic order of the clusters' elements
+	 */
+	private static void sortByWords(int[] order, int[] tmp, int from, int to, long[] keys, long[][] words) {
+		if (to - from < 2)
+			return;
+		int mid = (from + to) >>> 1;
+		sortByWords(order, tmp, from, mid, keys, words);
+		sortByWords(order, tmp, mid, to, keys, words);
+		if (compareWords(order[mid - 1], order[mid], keys, words) <= 0)
+			return;
+		System.arraycopy(order, from, tmp, from, to - from);
+		int a = from, b = mid;
+		for (int k = from; k < to; k++) {
+			if (b == to || (a < mid && compareWords(tmp[a], tmp[b], keys, words) <= 0))
+				order[k] = tmp[a++];
+			else
+				order[k] = tmp[b++];
+		}
+	}
+
+	/**
+	 * compare two clusters of equal cardinality as getComparator() does:
+	 * the cluster owning the lowest element in which they differ comes first
+	 */
+	private static int compareWords(int i, int j, long[] keys, long[][] words) {
+		if (keys[i] != keys[j])
+			return Long.compareUnsigned(keys[i], keys[j]) > 0 ? -1 : 1;
+		long[] a = words[i];
+		long[] b = words[j];
+		for (int w = 1; w < Math.max(a.length, b.length); w++) {
+			long x = w < a.length ? a[w] : 0;
+			long y = w < b.length ? b[w] : 0;
+			long diff = x ^ y;
+			if (diff != 0)
+				return (x & diff & -diff) != 0 ? -1 : 1;
+		}
+		return 0;
 	}
 
 	/**
@@ -0,0 +1,217 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+
+
+/**
+ * Extracts the clusters of an ensemble of trees, one tree at a time.
+ * 
+ * The cluster of a tree node is the set of mutation groups in its subtree, with bit t
+ * standing for mutationGroups.get(t). Sample leaves carry no mutation group and are skipped.
+ * Clusters are keyed by their mutation-group bits, so memory grows with the number of
+ * distinct clusters rather than with the number of trees.
+ */
+public class ClusterAccumulator {
+	private final ArrayList<PHYNode> mutationGroups;
+	
+	/** Mutation group index of each node id, or -1 */
+	private int[] nodeId2Group;
+	
+	/** Distinct clusters seen so far, in order of first occurrence */
+	private final LinkedHashMap<BitSet, Cluster> clusters;
+	
+	private int numTrees;
+	private double totalWeight;
+	
+	/** Scratch subtree sets, reused across trees */
+	private BitSet[] below = new BitSet[0];
+	
+	public ClusterAccumulator(ArrayList<PHYNode> mutationGroups) {
+		this.mutationGroups = mutationGroups;
+		int maxId = -1;
+		for (PHYNode n : mutationGroups) {
+			maxId = Math.max(maxId, n.getNodeId());
+		}
+		nodeId2Group = new int[maxId + 1];
+		Arrays.fill(nodeId2Group, -1);
+		for (int t = 0; t < mutationGroups.size(); t++) {
+			nodeId2Group[mutationGroups.get(t).getNodeId()] = t;
+		}
+		clusters = new LinkedHashMap<BitSet, Cluster>();
+	}
+	
+	public ArrayList<PHYNode> getMutationGroups() {
+		return mutationGroups;
+	}
+	
+	public int getNumTrees() {
+		return numTrees;
+	}
+	
+	public double getTotalWeight() {
+		return totalWeight;
+	}
+	
+	public int getNumClusters() {
+		return clusters.size();
+	}
+	
+	/**
+	 * Adds the clusters of a tree, numbered by the order in which trees are added
+	 */
+	public void addTree(PHYTree tree) {
+		addTree(tree, numTrees);
+	}
+	
+	/**
+	 * Adds the clusters of a tree with the given tree number, from its only parentless node.
+	 * Each distinct cluster of the tree gains the tree's weight once.
+	 * @throws IllegalArgumentException if the nodes do not form a single tree
+	 */
+	public void addTree(PHYTree tree, int treeNumber) {
+		int root = tree.getRootId();
+		numTrees++;
+		totalWeight += tree.weight;
+		if (root == -1) {
+			return;
+		}
+		
+		// iterative post-order traversal; below[k] collects the groups under stack entry k
+		int size = tree.getIdCapacity();
+		if (below.length < size) {
+			below = Arrays.copyOf(below, Math.max(size, 2 * below.length));
+		}
+		int[] stack = new int[size];
+		int[] nextChild = new int[size];
+		int top = 0;
+		stack[0] = root;
+		nextChild[0] = tree.getFirstChildId(stack[0]);
+		startSubtree(0, stack[0]);
+		while (top >= 0) {
+			int v = stack[top];
+			int w = nextChild[top];
+			if (w != -1) {
+				nextChild[top] = tree.getNextSiblingId(w);
+				top++;
+				stack[top] = w;
+				nextChild[top] = tree.getFirstChildId(w);
+				startSubtree(top, w);
+				continue;
+			}
+			
+			// v is complete
+			finishSubtree(top, tree.getNode(v).isLeaf(), tree.weight, treeNumber);
+			top--;
+		}
+	}
+	
+	/**
+	 * Adds the clusters of a tree of a mapped ensemble, numbered by the order in which trees are added
+	 */
+	public void addTree(TreeView tree) {
+		addTree(tree, numTrees);
+	}
+	
+	/**
+	 * Adds the clusters of a tree of a mapped ensemble with the given tree number,
+	 * reading its parent array in place
+	 */
+	public void addTree(TreeView tree, int treeNumber) {
+		numTrees++;
+		totalWeight += tree.getWeight();
+		int size = tree.getNumNodes();
+		if (size == 0) {
+			return;
+		}
+		if (below.length < size) {
+			below = Arrays.copyOf(below, Math.max(size, 2 * below.length));
+		}
+		
+		// the nodes are in pre-order: before opening a node, complete the open nodes below its parent
+		int[] stack = new int[size];
+		int top = -1;
+		for (int i = 0; i < size; i++) {
+			int p = tree.getParent(i);
+			while (top >= 0 && stack[top] != p) {
+				finishSubtree(top, tree.getNode(stack[top]).isLeaf(), tree.getWeight(), treeNumber);
+				top--;
+			}
+			stack[++top] = i;
+			startSubtree(top, tree.getNode(i).getNodeId());
+		}
+		while (top >= 0) {
+			finishSubtree(top, tree.getNode(stack[top]).isLeaf(), tree.getWeight(), treeNumber);
+			top--;
+		}
+	}
+	
+	private void finishSubtree(int depth, boolean isLeaf, double weight, int treeNumber) {
+		if (!isLeaf) {
+			record(below[depth], weight, treeNumber);
+		}
+		if (depth > 0) {
+			below[depth - 1].or(below[depth]);
+		}
+	}
+	
+	private void startSubtree(int depth, int id) {
+		if (below[depth] == null) {
+			below[depth] = new BitSet(mutationGroups.size());
+		} else {
+			below[depth].clear();
+		}
+		if (id < nodeId2Group.length && nodeId2Group[id] != -1) {
+			below[depth].set(nodeId2Group[id]);
+		}
+	}
+	
+	private void record(BitSet groups, double weight, int treeNumber) {
+		if (groups.isEmpty()) {
+			return;
+		}
+		Cluster c = clusters.get(groups);
+		if (c == null) {
+			c = new Cluster(groups, 0, 0, clusters.size());
+			clusters.put(c, c);
+		} else if (c.getTreeSet().contains(treeNumber)) {
+			// the same cluster at two nodes of one tree (e.g. root with a single child)
+			return;
+		}
+		c.setWeight(c.getWeight() + weight);
+		c.addTreeNumber(treeNumber);
+	}
+	
+	/**
+	 * Returns all clusters, with confidence set to their share of the total tree weight
+	 */
+	public ArrayList<Cluster> getClusters() {
+		return getClusters(0);
+	}
+	
+	/**
+	 * Returns the clusters whose confidence (share of the total tree weight) is at least minConfidence.
+	 * Cluster ids are the positions in the returned list. The clusters are copies, so that
+	 * adding more trees does not change clusters already handed out (e.g. to a ClusterNetwork).
+	 */
+	public ArrayList<Cluster> getClusters(double minConfidence) {
+		ArrayList<Cluster> result = new ArrayList<Cluster>();
+		for (Cluster c : clusters.values()) {
+			double confidence = (totalWeight == 0 ? 0 : c.getWeight() / totalWeight);
+			if (confidence >= minConfidence) {
+				Cluster copy = (Cluster) c.clone();
+				copy.setConfidence(confidence);
+				copy.setId(result.size());
+				result.add(copy);
+			}
+		}
+		return result;
+	}
+}
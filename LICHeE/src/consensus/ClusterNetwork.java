@@ -13,8 +13,32 @@ import java.util.*;
  */
 public class ClusterNetwork {
 	private ArrayList<CNNode> nodes;
-	private ArrayList<ArrayList<CNEdge>> outEdges; // stored per from node
-	private ArrayList<ArrayList<CNEdge>> inEdges; // stored per to node
+	private ArrayList<ArrayList<CNEdge>> outEdges; // stored per from node, while building
+	private ArrayList<ArrayList<CNEdge>> inEdges; // stored per to node, while building
+	private CNGraph graph; // compact adjacency, once frozen
+	private int parallelism = 1; // threads used to construct the Hasse diagram
+
+	// clusters behind the nodes, kept for incremental updates
+	private ArrayList<PHYNode> mutationGroups;
+	private ArrayList<Cluster> nodeClusters; // per node, null for dummy and removed nodes
+	private HashMap<BitSet, CNNode> clusterNodes; // node of each cluster
+	private BitSet removedNodes = new BitSet(); // ids of removed nodes, free for reuse
+
+	// per node values behind the reticulate confidences, kept for incremental updates
+	private int[] dominator; // immediate dominator, the LSA for reticulations; -1 if none
+	private double[] intervalSum; // non-reticulate in-edge confidence of the nodes between the dominator and the node
+	private long[] intervalCount;
+	private double[] belowSum; // non-reticulate confidence below the node, once per path
+	private long[] belowCount;
+
+	// scratch of incremental updates, marked with the stamp of the update (or search) using them
+	private int stamp;
+	private int[] queuedStamp = new int[0]; // queued by the pass in progress
+	private int[] changedStamp = new int[0]; // dominator or interval changed, or in-edges replaced
+	private int[] reticulateStamp = new int[0]; // reticulate confidences to recompute
+	private int[] walkStamp = new int[0]; // visited by a search or walk
+	private int[] stack = new int[0];
+	private NodeQueue queue = new NodeQueue();
 
 	public ClusterNetwork() {
 		nodes = new ArrayList<CNNode>();
@@ -23,18 +47,21 @@ public class ClusterNetwork {
 	}
 
 	public CNNode addNode() {
-		int id = nodes.size(); // ensure unique, corresponds to position in nodes
-		CNNode n = new CNNode(id);
-		nodes.add(n);
-		return n;
+		return addNode(new CNNode(nodes.size())); // ensure unique, corresponds to position in nodes
 	}
 
 	public CNNode addNode(double confidence) {
-		int id = nodes.size(); // ensure unique, corresponds to position in nodes
-		CNNode n = new CNNode(id, confidence);
+		return addNode(new CNNode(nodes.size(), confidence));
+	}
+
+	private CNNode addNode(CNNode n) {
+		checkNotFrozen();
 		nodes.add(n);
 		outEdges.add(new ArrayList<CNEdge>());
 		inEdges.add(new ArrayList<CNEdge>());
+		if (nodeClusters != null) {
+			nodeClusters.add(null);
+		}
 		return n;
 	}
 
@@ -43,6 +70,7 @@ public class ClusterNetwork {
 	 * Assumes the to and from nodes are already in nodes.
 	 */
 	public CNEdge addEdge(CNNode from, CNNode to) {
+		checkNotFrozen();
 		CNEdge e = new CNEdge(from, to);
 		outEdges.get(from.getId()).add(e);
 		inEdges.get(to.getId()).add(e);
@@ -50,24 +78,204 @@ public class ClusterNetwork {
 	}
 
 	public void removeEdge(CNEdge e) {
-		outEdges.get(e.getSource().getId()).remove(e);
-		inEdges.get(e.getTarget().getId()).remove(e);
+		checkNotFrozen();
+		removeIdentical(outEdges.get(e.getSource().getId()), e);
+		removeIdentical(inEdges.get(e.getTarget().getId()), e);
+	}
+
+	/**
+	 * Removes e itself (not an edge that is merely equal to it), scanning from the end
+	 */
+	private static void removeIdentical(ArrayList<CNEdge> edges, CNEdge e) {
+		for (int i = edges.size() - 1; i >= 0; i--) {
+			if (edges.get(i) == e) {
+				edges.remove(i);
+				return;
+			}
+		}
+	}
+
+	private void checkNotFrozen() {
+		if (graph != null) {
+			throw new IllegalStateException("Cluster network is frozen");
+		}
+	}
+
+	/**
+	 * Converts the adjacency lists into the compact CSR graph.
+	 * Edge ids follow the order of the out-edge lists, in-edges keep their order.
+	 * The network can no longer be modified afterwards.
+	 */
+	public CNGraph freeze() {
+		if (graph != null) {
+			return graph;
+		}
+		if (outEdges == null) {
+			throw new IllegalStateException("Cluster network has no adjacency");
+		}
+		int numEdges = 0;
+		for (ArrayList<CNEdge> edges : outEdges) {
+			numEdges += edges.size();
+		}
+		int[] edgeSource = new int[numEdges];
+		int[] edgeTarget = new int[numEdges];
+		double[] edgeConfidence = new double[numEdges];
+		boolean[] edgeReticulate = new boolean[numEdges];
+		int id = 0;
+		for (ArrayList<CNEdge> edges : outEdges) {
+			for (CNEdge e : edges) {
+				e.edgeId = id;
+				edgeSource[id] = e.getSource().getId();
+				edgeTarget[id] = e.getTarget().getId();
+				edgeConfidence[id] = e.getConfidence();
+				edgeReticulate[id] = e.isReticulate();
+				id++;
+			}
+		}
+		int[] inOrder = new int[numEdges];
+		int n = 0;
+		for (ArrayList<CNEdge> edges : inEdges) {
+			for (CNEdge e : edges) {
+				inOrder[n++] = e.edgeId;
+			}
+		}
+		graph = new CNGraph(nodes.size(), edgeSource, edgeTarget, edgeConfidence, edgeReticulate, inOrder);
+		outEdges = null;
+		inEdges = null;
+		return graph;
+	}
+
+	/**
+	 * Converts the compact graph back into adjacency lists so that the network can be modified.
+	 * Edge views handed out while frozen are no longer connected to the network.
+	 */
+	private void thaw() {
+		if (graph == null) {
+			return;
+		}
+		outEdges = new ArrayList<ArrayList<CNEdge>>(nodes.size());
+		inEdges = new ArrayList<ArrayList<CNEdge>>(nodes.size());
+		for (int v = 0; v < nodes.size(); v++) {
+			outEdges.add(new ArrayList<CNEdge>(graph.getOutDegree(v)));
+			inEdges.add(new ArrayList<CNEdge>(graph.getInDegree(v)));
+		}
+		CNEdge[] edges = new CNEdge[graph.numEdges];
+		for (int e = 0; e < graph.numEdges; e++) {
+			edges[e] = new CNEdge(nodes.get(graph.edgeSource[e]), nodes.get(graph.edgeTarget[e]), graph.edgeConfidence[e]);
+			if (graph.edgeReticulate[e]) {
+				edges[e].setReticulate();
+			}
+			outEdges.get(graph.edgeSource[e]).add(edges[e]);
+		}
+		for (int v = 0; v < nodes.size(); v++) {
+			for (int k = graph.inOffsets[v]; k < graph.inOffsets[v + 1]; k++) {
+				inEdges.get(v).add(edges[graph.inEdgeIds[k]]);
+			}
+		}
+		graph = null;
+	}
+
+	/**
+	 * Returns the compact graph, or null if the network has not been frozen
+	 * (or has been modified since)
+	 */
+	public CNGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Returns the lowest stable ancestor of reticulation v,
+	 * or null if v is not a reticulation or confidences have not been computed
+	 */
+	public CNNode getLSA(CNNode v) {
+		int id = v.getId();
+		if (dominator == null || getInDegree(v) < 2 || dominator[id] == -1) {
+			return null;
+		}
+		return nodes.get(dominator[id]);
+	}
+
+	public boolean isFrozen() {
+		return graph != null;
+	}
+
+	public int getNumNodes() {
+		return nodes.size();
+	}
+
+	public CNNode getNode(int id) {
+		return nodes.get(id);
+	}
+
+	/**
+	 * Sets the number of threads used to construct the Hasse diagram.
+	 * The result does not depend on this setting.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return parallelism;
 	}
 
 	public CNNode getRoot() {
 		return nodes.get(0);
 	}
 
+	/**
+	 * Returns the cluster represented by v, or null if v is a dummy node or has been removed
+	 */
+	public Cluster getCluster(CNNode v) {
+		return nodeClusters == null ? null : nodeClusters.get(v.getId());
+	}
+
+	/**
+	 * Returns true if v has been removed by removeCluster (its id may be reused later)
+	 */
+	public boolean isRemoved(CNNode v) {
+		return removedNodes.get(v.getId());
+	}
+
+	/**
+	 * Returns the node representing the given cluster, or null if it is not in the network
+	 */
+	public CNNode getNode(BitSet cluster) {
+		return clusterNodes == null ? null : clusterNodes.get(cluster);
+	}
+
+	/**
+	 * Returns the out-edges of v; once frozen, these are views of the compact graph
+	 */
 	public ArrayList<CNEdge> getOutEdges(CNNode v) {
-		return outEdges.get(v.getId());
+		if (graph == null) {
+			return outEdges.get(v.getId());
+		}
+		int id = v.getId();
+		ArrayList<CNEdge> edges = new ArrayList<CNEdge>(graph.getOutDegree(id));
+		for (int k = graph.outOffsets[id]; k < graph.outOffsets[id + 1]; k++) {
+			edges.add(new CNEdge(v, nodes.get(graph.outTargets[k]), graph, graph.outEdgeIds[k]));
+		}
+		return edges;
 	}
 
+	/**
+	 * Returns the in-edges of v; once frozen, these are views of the compact graph
+	 */
 	public ArrayList<CNEdge> getInEdges(CNNode v) {
-		return inEdges.get(v.getId());
+		if (graph == null) {
+			return inEdges.get(v.getId());
+		}
+		int id = v.getId();
+		ArrayList<CNEdge> edges = new ArrayList<CNEdge>(graph.getInDegree(id));
+		for (int k = graph.inOffsets[id]; k < graph.inOffsets[id + 1]; k++) {
+			edges.add(new CNEdge(nodes.get(graph.inSources[k]), v, graph, graph.inEdgeIds[k]));
+		}
+		return edges;
 	}
 
 	public int getInDegree(CNNode v) {
-		return getInEdges(v).size();
+		return graph == null ? inEdges.get(v.getId()).size() : graph.getInDegree(v.getId());
 	}
 
 	// TODO(Reyna) method to construct from... input trees? clusters & wts?
@@ -76,7 +284,7 @@ public class ClusterNetwork {
 	// TODO(Reyna) add support for samples/leaves?? they probably shouldn't be in the clusters
 
 	/**
-	 * Computes the cluster network.
+	 * Computes the cluster network. The network keeps copies of the clusters.
 	 */
 	public void constructNetwork(ArrayList<PHYNode> mutationGroups, ArrayList<Cluster> clusters) {
 		System.err.println("Constructing cluster network (mutation groups=" + mutationGroups.size()
@@ -84,51 +292,37 @@ public class ClusterNetwork {
 
 		constructHasse(mutationGroups, clusters);
 		convertHasseToClusterNetwork();
+		freeze();
 		computeConfidenceOnReticulate();
 	}
 
 	/**
 	 * Construct the Hasse diagram for a set of clusters.
 	 * Assumes clusters contains the cluster of all mutation groups (largest cardinality)
+	 * The cover relation itself is computed bit-parallel by HasseDiagram.
 	 */
 	public void constructHasse(ArrayList<PHYNode> mutationGroups, ArrayList<Cluster> clusters) {
 		// initialize nodes, one per cluster, with ids corresponding to index in clusters array
 		clusters = Cluster.getClustersSortedByDecreasingCardinality(clusters);
+		// the network keeps copies, so that incremental updates do not change the caller's clusters
+		for (int i = 0; i < clusters.size(); i++) {
+			clusters.set(i, (Cluster) clusters.get(i).clone());
+		}
+		this.mutationGroups = mutationGroups;
+		nodeClusters = new ArrayList<Cluster>();
+		clusterNodes = new HashMap<BitSet, CNNode>();
 		for (Cluster c : clusters) {
 			CNNode newNode = addNode(c.getConfidence());
+			nodeClusters.set(newNode.getId(), c);
+			clusterNodes.put(c, newNode);
 		}
 
-		CNNode root = getRoot();
-
-		// add edges indicating subset containment
-		Stack<CNNode> stack = new Stack<>();
-		Set<CNNode> visited = new HashSet<CNNode>();
+		// add edges from the lowest supersets of each cluster
+		HasseDiagram hasse = new HasseDiagram(clusters, parallelism);
 		for (int i = 1; i < clusters.size(); i++) {
 			CNNode node = nodes.get(i);
-			Cluster cluster = clusters.get(i);
-
-			// starting from the root, find all supersets of cluster
-			// and add edges from the lowest supersets to node
-			visited.clear();
-			stack.push(root);
-			visited.add(root);
-			while (stack.size() > 0) {
-				CNNode v = stack.pop();
-				boolean isBelowAChildOfV = false;
-				for (CNEdge e : getOutEdges(v)) {
-					CNNode w = e.getTarget();
-					int j = w.getId();
-					if (Cluster.contains(clusters.get(j), cluster)) {
-						isBelowAChildOfV = true;
-						if (!visited.contains(w)) {
-							visited.add(w);
-							stack.push(w);
-						}
-					}
-				}
-				if (!isBelowAChildOfV) {
-					addEdge(v, node);
-				}
+			for (int j : hasse.getParents(i)) {
+				addEdge(nodes.get(j), node);
 			}
 		}
 
@@ -136,12 +330,8 @@ public class ClusterNetwork {
 		for (int i = 0; i < clusters.size(); i++) {
 			CNNode v = nodes.get(i);
 
-			// calculate the set of mutation groups represented by v but none of its children
-			BitSet cluster = (BitSet) clusters.get(v.getId()).clone();
-			for (CNEdge e : getOutEdges(v)) {
-				CNNode w = e.getTarget();
-				cluster = Cluster.setminus(cluster, clusters.get(w.getId()));
-			}
+			// the set of mutation groups represented by v but none of its children
+			BitSet cluster = hasse.getLabel(i);
 
 			// apply the label
 			ArrayList<PHYNode> label = new ArrayList<PHYNode>();
@@ -159,7 +349,10 @@ public class ClusterNetwork {
 	 */
 	public void convertHasseToClusterNetwork() {
 		// split every node that has indegree > 1 and outdegree != 1
-		for (CNNode v : nodes) {
+		// (dummy nodes are appended to nodes, so only the original nodes are visited)
+		int numNodes = nodes.size();
+		for (int i = 0; i < numNodes; i++) {
+			CNNode v = nodes.get(i);
 			if (getInDegree(v) > 1) {
 				// add a dummy node with all of v's in edges, to be v's parent
 				CNNode dummyNode = addNode();
@@ -182,222 +375,782 @@ public class ClusterNetwork {
 	/**
 	 * Compute confidence of reticulate edges as proportion of confidence in edges between the
 	 * node and LSA going through the edge, scaled by the average confidence below the node.
+	 *
+	 * Every LSA dominates the parents of its reticulation, so the edges between the LSA a and
+	 * a parent u are exactly the edges in the dominator tree intervals on the way from a down to u.
+	 * With prefix sums P over the dominator tree, their (non-reticulate) confidence sum is P(u) - P(a),
+	 * which makes each in-edge O(1) after a single sweep. All values are computed from the confidences
+	 * before any reticulate edge is updated. The interval sums P(v) - P(dominator of v) are kept
+	 * per node, so that incremental updates can recompute them locally.
 	 */
 	private void computeConfidenceOnReticulate() {
-		ReticulationData data = new ReticulationData(nodes.size());
-		computeReticulation2LSA(getRoot(), data);
-
-		// compute the sum of non-reticulate confidence and count below each node
-		double[] averageConfidenceBelow = new double[nodes.size()];
-		int[] countBelow = new int[nodes.size()];
-		Arrays.fill(countBelow, -1);
-		computeConfidenceBelow(getRoot(), averageConfidenceBelow, countBelow);
-
-		// convert sums into averages
-		for (CNNode v : nodes) {
-			if (countBelow[v.getId()] > 0) {
-				double sum = averageConfidenceBelow[v.getId()];
-				averageConfidenceBelow[v.getId()] = sum / countBelow[v.getId()];
-			}
-		}
-
-		for (Map.Entry<CNNode, CNNode> entry : data.ret2LSA.entrySet()) {
-			CNNode v = entry.getKey();
-			CNNode lsa = entry.getValue();
-
-			// compute the share of confidence for each of v's reticulate edges
-			Map<CNEdge, Double> e2AverageConfidence = new HashMap<>();
-			for (CNEdge e : getInEdges(v)) {
-
-				// get all edges between e and LSA
-				Stack<CNEdge> stack = new Stack<>();
-				stack.push(e);
-				Set<CNEdge> seen = new HashSet<>();
-				seen.add(e);
-				while (stack.size() > 0) {
-					CNEdge f = stack.pop();
-					CNNode w = f.getSource();
-					if (w != lsa) {
-						for (CNEdge g : getInEdges(w)) {
-							if (!seen.contains(g)) {
-								seen.add(g);
-								stack.push(g);
-							}
+		int root = getRoot().getId();
+		LowestStableAncestors lsa = new LowestStableAncestors(graph, root);
+		int n = graph.numNodes;
+		int[] order = lsa.getTopologicalOrder();
+		dominator = new int[n];
+		for (int v = 0; v < n; v++) {
+			dominator[v] = lsa.getDominator(v);
+		}
+
+		// sum and count of the non-reticulate in-edges of each node
+		double[] inSum = new double[n];
+		int[] inCount = new int[n];
+		for (int e = 0; e < graph.numEdges; e++) {
+			if (!graph.edgeReticulate[e]) {
+				inSum[graph.edgeTarget[e]] += graph.edgeConfidence[e];
+				inCount[graph.edgeTarget[e]]++;
+			}
+		}
+
+		// prefix sums over the dominator tree of the edges between each node and its dominator
+		double[] prefixSum = new double[n];
+		long[] prefixCount = new long[n];
+		intervalSum = new double[n];
+		intervalCount = new long[n];
+		int[] seen = new int[n];
+		Arrays.fill(seen, -1);
+		int[] pending = new int[n];
+		for (int k = 1; k < order.length; k++) {
+			int v = order[k];
+			int d = dominator[v];
+			double sum = 0;
+			long count = 0;
+			if (graph.getInDegree(v) == 1) {
+				sum = inSum[v];
+				count = inCount[v];
+			} else {
+				// collect the nodes between d and v once, marking them with v
+				int top = 0;
+				pending[top++] = v;
+				seen[v] = v;
+				while (top > 0) {
+					int y = pending[--top];
+					sum += inSum[y];
+					count += inCount[y];
+					for (int p = graph.inOffsets[y]; p < graph.inOffsets[y + 1]; p++) {
+						int x = graph.inSources[p];
+						if (x != d && seen[x] != v) {
+							seen[x] = v;
+							pending[top++] = x;
 						}
 					}
 				}
+			}
+			intervalSum[v] = sum;
+			intervalCount[v] = count;
+			prefixSum[v] = prefixSum[d] + sum;
+			prefixCount[v] = prefixCount[d] + count;
+		}
 
-				// store the average confidence for edges above e and below LSA
-				e2AverageConfidence.put(e, computeAverageConfidence(seen));
+		// sum of non-reticulate confidences and count below each node, counted once per path
+		belowSum = new double[n];
+		belowCount = new long[n];
+		for (int k = order.length - 1; k >= 0; k--) {
+			int v = order[k];
+			double confidence = 0;
+			long count = 0;
+			for (int p = graph.outOffsets[v]; p < graph.outOffsets[v + 1]; p++) {
+				int e = graph.outEdgeIds[p];
+				int w = graph.outTargets[p];
+				if (!graph.edgeReticulate[e]) {
+					confidence += graph.edgeConfidence[e];
+					count++;
+				}
+				confidence += belowSum[w];
+				count += belowCount[w];
 			}
+			belowSum[v] = confidence;
+			belowCount[v] = count;
+		}
 
-			// compute the total confidence among all of v's reticulate edges
-			double sum = 0;
-			for (Double x : e2AverageConfidence.values()) {
-				sum += (x);
+		// average confidence of the edges between each reticulate edge and the LSA of its target
+		double[] newConfidence = new double[graph.numEdges];
+		boolean[] updated = new boolean[graph.numEdges];
+		for (int r : order) {
+			int a = lsa.getLSA(r);
+			if (a == -1) {
+				continue;
+			}
+			double total = 0;
+			for (int p = graph.inOffsets[r]; p < graph.inOffsets[r + 1]; p++) {
+				int e = graph.inEdgeIds[p];
+				int u = graph.inSources[p];
+				double sum = prefixSum[u] - prefixSum[a];
+				long count = prefixCount[u] - prefixCount[a];
+				if (!graph.edgeReticulate[e]) {
+					sum += graph.edgeConfidence[e];
+					count++;
+				}
+				newConfidence[e] = (count == 0 ? 0 : sum / count);
+				total += newConfidence[e];
 			}
 
-			// give each edge its share of the average confidence below v
-			for (CNEdge e : e2AverageConfidence.keySet()) {
-				double share = (sum == 0 ? 0 : e2AverageConfidence.get(e) / sum);
-				e.setConfidence(share * averageConfidenceBelow[e.getTarget().getId()]);
+			// give each edge its share of the average confidence below r
+			double averageConfidenceBelow = (belowCount[r] > 0 ? belowSum[r] / belowCount[r] : belowSum[r]);
+			for (int p = graph.inOffsets[r]; p < graph.inOffsets[r + 1]; p++) {
+				int e = graph.inEdgeIds[p];
+				double share = (total == 0 ? 0 : newConfidence[e] / total);
+				newConfidence[e] = share * averageConfidenceBelow;
+				updated[e] = true;
+			}
+		}
+		for (int e = 0; e < graph.numEdges; e++) {
+			if (updated[e]) {
+				graph.edgeConfidence[e] = newConfidence[e];
 			}
 		}
 	}
 
+	// ---- incremental updates ----
+
 	/**
-	 * Nested class to hold the information for recursively calculating LSA nodes.
+	 * Adds a cluster to a constructed network. If the cluster is already present, its weight,
+	 * confidence and tree numbers are merged into the existing one, as when sorting clusters.
+	 * Otherwise only the covers, dummy nodes and labels around the new node are patched, and the
+	 * LSAs and reticulate confidences are recomputed for the affected nodes only.
+	 * The result equals a network constructed from scratch, up to node ids.
 	 */
-	private static class ReticulationData {
-		Map<CNNode, BitSet> ret2PathSet;
-		Map<CNNode, Map<CNEdge, BitSet>> ret2Edge2PathSet;
-		Map<CNNode, CNNode> ret2LSA;
-		ArrayList<Set<CNNode>> node2below; // set of reticulation nodes below a given node
+	public CNNode addCluster(Cluster c) {
+		checkConstructed();
+		CNNode existing = clusterNodes.get(c);
+		if (existing != null) {
+			Cluster merged = nodeClusters.get(existing.getId());
+			merged.setWeight(merged.getWeight() + c.getWeight());
+			merged.setConfidence(merged.getConfidence() + c.getConfidence());
+			merged.getTreeSet().or(c.getTreeSet());
+			existing.setConfidence(merged.getConfidence());
+			return existing;
+		}
+		if (c.isEmpty() || !Cluster.contains(nodeClusters.get(0), c)) {
+			throw new IllegalArgumentException("Cluster must be a non-empty subset of the root cluster: " + c);
+		}
+		thaw();
+		Update update = new Update();
+
+		// lowest supersets: walk down from the root through supersets of c
+		growArrays();
+		ArrayList<CNNode> parents = new ArrayList<CNNode>();
+		int search = nextStamp();
+		int top = 0;
+		stack[top++] = getRoot().getId();
+		walkStamp[getRoot().getId()] = search;
+		while (top > 0) {
+			CNNode x = nodes.get(stack[--top]);
+			boolean lowest = true;
+			for (CNNode y : getCoverChildren(x)) {
+				if (Cluster.contains(nodeClusters.get(y.getId()), c)) {
+					lowest = false;
+					if (walkStamp[y.getId()] != search) {
+						walkStamp[y.getId()] = search;
+						stack[top++] = y.getId();
+					}
+				}
+			}
+			if (lowest) {
+				parents.add(x);
+			}
+		}
+
+		// maximal subsets: walk down from the lowest supersets through clusters overlapping c
+		ArrayList<CNNode> subsets = new ArrayList<CNNode>();
+		search = nextStamp();
+		for (CNNode p : parents) {
+			stack[top++] = p.getId();
+		}
+		while (top > 0) {
+			CNNode x = nodes.get(stack[--top]);
+			for (CNNode y : getCoverChildren(x)) {
+				Cluster cy = nodeClusters.get(y.getId());
+				if (walkStamp[y.getId()] == search) {
+					continue;
+				}
+				walkStamp[y.getId()] = search;
+				if (!cy.intersects(c)) {
+					continue;
+				}
+				if (Cluster.contains(c, cy)) {
+					subsets.add(y);
+				} else {
+					stack[top++] = y.getId();
+				}
+			}
+		}
+		ArrayList<CNNode> children = new ArrayList<CNNode>();
+		for (CNNode y : subsets) {
+			boolean maximal = true;
+			for (CNNode z : subsets) {
+				if (z != y && Cluster.contains(nodeClusters.get(z.getId()), nodeClusters.get(y.getId()))) {
+					maximal = false;
+					break;
+				}
+			}
+			if (maximal) {
+				children.add(y);
+			}
+		}
 
-		public ReticulationData(int numNodes) {
-			ret2PathSet = new HashMap<>();
-			ret2Edge2PathSet = new HashMap<>();
-			ret2LSA = new HashMap<>();
-			node2below = new ArrayList<Set<CNNode>>(Collections.nCopies(numNodes, new HashSet<>()));
-		}	
+		// the new node covers the maximal subsets, which are no longer covered by supersets of c
+		Cluster cluster = (Cluster) c.clone();
+		CNNode v = newNode(cluster.getConfidence());
+		nodeClusters.set(v.getId(), cluster);
+		clusterNodes.put(cluster, v);
+		setCoverParents(v, parents, update);
+		for (CNNode y : children) {
+			ArrayList<CNNode> newParents = new ArrayList<CNNode>();
+			for (CNNode q : getCoverParents(y)) {
+				if (!Cluster.contains(nodeClusters.get(q.getId()), c)) {
+					newParents.add(q);
+				}
+			}
+			newParents.add(v);
+			setCoverParents(y, newParents, update);
+		}
+		update.relabel.add(v.getId());
+		for (CNNode p : parents) {
+			update.relabel.add(p.getId());
+		}
+		update.apply();
+		return v;
 	}
 
 	/**
-	 * Recursively compute the mapping of reticulate nodes to their LSA nodes.
+	 * Removes a cluster from a constructed network, connecting its children to those of its
+	 * parents that become their lowest supersets.
+	 * Only the affected covers, dummy nodes, labels, LSAs and reticulate confidences are updated.
+	 * @return the removed cluster, or null if it is not in the network
 	 */
-	private void computeReticulation2LSA(CNNode v, ReticulationData data) {
-		if (getInDegree(v) > 1) {
-			// set up new paths for this node
-			Map<CNEdge, BitSet> edge2PathSet = new HashMap<>();
-			data.ret2Edge2PathSet.put(v, edge2PathSet);
-			BitSet pathsForR = new BitSet();
-			data.ret2PathSet.put(v, pathsForR);
+	public Cluster removeCluster(BitSet c) {
+		checkConstructed();
+		CNNode v = clusterNodes.get(c);
+		if (v == null) {
+			return null;
+		}
+		if (v == getRoot()) {
+			throw new IllegalArgumentException("Cannot remove the root cluster");
+		}
+		thaw();
+		Update update = new Update();
+		ArrayList<CNNode> parents = getCoverParents(v);
+		ArrayList<CNNode> children = getCoverChildren(v);
+		for (CNNode y : children) {
+			ArrayList<CNNode> remaining = new ArrayList<CNNode>();
+			for (CNNode q : getCoverParents(y)) {
+				if (q != v) {
+					remaining.add(q);
+				}
+			}
+			// a parent of v covers y unless a remaining parent of y lies between them
+			ArrayList<CNNode> newParents = new ArrayList<CNNode>(remaining);
+			for (CNNode p : parents) {
+				boolean covers = true;
+				for (CNNode q : remaining) {
+					if (Cluster.contains(nodeClusters.get(p.getId()), nodeClusters.get(q.getId()))) {
+						covers = false;
+						break;
+					}
+				}
+				if (covers) {
+					newParents.add(p);
+				}
+			}
+			setCoverParents(y, newParents, update);
+		}
+		setCoverParents(v, new ArrayList<CNNode>(), update);
+		Cluster cluster = nodeClusters.get(v.getId());
+		clusterNodes.remove(cluster);
+		removeNode(v);
+		for (CNNode p : parents) {
+			update.relabel.add(p.getId());
+		}
+		update.apply();
+		return cluster;
+	}
+
+	/**
+	 * Changes the confidence of a cluster and its node.
+	 * Edge confidences do not depend on node confidences, so nothing else changes.
+	 */
+	public void setClusterConfidence(BitSet c, double confidence) {
+		checkConstructed();
+		CNNode v = clusterNodes.get(c);
+		if (v == null) {
+			throw new IllegalArgumentException("Cluster is not in the network: " + c);
+		}
+		nodeClusters.get(v.getId()).setConfidence(confidence);
+		v.setConfidence(confidence);
+	}
+
+	private void checkConstructed() {
+		if (nodeClusters == null || dominator == null) {
+			throw new IllegalStateException("Cluster network has not been constructed");
+		}
+	}
+
+	private boolean isDummy(int v) {
+		return nodeClusters.get(v) == null && !removedNodes.get(v);
+	}
+
+	/**
+	 * Returns the dummy node between v and its parents, or null
+	 */
+	private CNNode getDummy(CNNode v) {
+		ArrayList<CNEdge> in = inEdges.get(v.getId());
+		if (in.size() == 1 && isDummy(in.get(0).getSource().getId())) {
+			return in.get(0).getSource();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the lowest supersets of the cluster of v, looking through its dummy node
+	 */
+	private ArrayList<CNNode> getCoverParents(CNNode v) {
+		CNNode dummy = getDummy(v);
+		ArrayList<CNNode> parents = new ArrayList<CNNode>();
+		for (CNEdge e : inEdges.get((dummy == null ? v : dummy).getId())) {
+			parents.add(e.getSource());
+		}
+		return parents;
+	}
+
+	/**
+	 * Returns the maximal subsets of the cluster of v, looking through dummy nodes
+	 */
+	private ArrayList<CNNode> getCoverChildren(CNNode v) {
+		ArrayList<CNNode> children = new ArrayList<CNNode>();
+		for (CNEdge e : outEdges.get(v.getId())) {
+			CNNode y = e.getTarget();
+			children.add(isDummy(y.getId()) ? outEdges.get(y.getId()).get(0).getTarget() : y);
+		}
+		return children;
+	}
 
-			//  assign a different path number to each in-edge
-			int pathNum = 0;
-			for (CNEdge e : getInEdges(v)) {
-				pathNum++;
-				pathsForR.set(pathNum);
-				BitSet pathsForEdge = new BitSet();
-				pathsForEdge.set(pathNum);
-				edge2PathSet.put(e, pathsForEdge);
+	/**
+	 * Replaces the in-edges of v by edges from the given parents, going through a dummy node
+	 * (reused if v already has one) when there is more than one parent
+	 */
+	private void setCoverParents(CNNode v, ArrayList<CNNode> parents, Update update) {
+		CNNode dummy = getDummy(v);
+		update.inChanged.add(v.getId());
+		for (CNEdge e : new ArrayList<CNEdge>(inEdges.get(v.getId()))) {
+			update.outChanged.add(e.getSource().getId());
+			removeEdge(e);
+		}
+		if (dummy != null) {
+			for (CNEdge e : new ArrayList<CNEdge>(inEdges.get(dummy.getId()))) {
+				update.outChanged.add(e.getSource().getId());
+				removeEdge(e);
+			}
+			if (parents.size() < 2) {
+				removeNode(dummy);
+				dummy = null;
+			}
+		}
+		if (parents.size() == 1) {
+			addEdge(parents.get(0), v);
+			update.outChanged.add(parents.get(0).getId());
+		} else if (parents.size() > 1) {
+			if (dummy == null) {
+				dummy = newNode(1);
 			}
+			update.inChanged.add(dummy.getId());
+			update.outChanged.add(dummy.getId());
+			for (CNNode p : parents) {
+				addEdge(p, dummy).setReticulate();
+				update.outChanged.add(p.getId());
+			}
+			addEdge(dummy, v);
+		}
+	}
+
+	/**
+	 * Adds a node, reusing the id of a removed node if there is one
+	 */
+	private CNNode newNode(double confidence) {
+		int id = removedNodes.nextSetBit(0);
+		if (id == -1) {
+			return addNode(confidence);
+		}
+		removedNodes.clear(id);
+		resetNode(id);
+		CNNode v = new CNNode(id, confidence);
+		nodes.set(id, v);
+		return v;
+	}
+
+	/**
+	 * Marks an isolated node as removed, freeing its id
+	 */
+	private void removeNode(CNNode v) {
+		int id = v.getId();
+		nodeClusters.set(id, null);
+		removedNodes.set(id);
+		resetNode(id);
+	}
+
+	private void resetNode(int v) {
+		if (v < dominator.length) {
+			dominator[v] = -1;
+			intervalSum[v] = 0;
+			intervalCount[v] = 0;
+			belowSum[v] = 0;
+			belowCount[v] = 0;
 		}
+	}
 
-		Set<CNNode> reticulationsBelow = new HashSet<>(); // set of all reticulate nodes below v
-		data.node2below.set(v.getId(), reticulationsBelow);
+	/**
+	 * Nodes changed by an incremental update, and the local recomputation of labels, LSAs
+	 * and reticulate confidences around them.
+	 * Dominators and interval sums can only change below nodes whose in-edges changed, and
+	 * the sums below a node only above nodes whose out-edges changed, so each is recomputed
+	 * in its own pass from its own nodes, and stops spreading where values come out unchanged.
+	 */
+	private class Update {
+		final IntList inChanged = new IntList();
+		final IntList outChanged = new IntList();
+		final IntList relabel = new IntList();
 
-		// visit all children and determine all reticulations below this node
-		for (CNEdge f : getOutEdges(v)) {
-			CNNode w = f.getTarget();
-			if (data.node2below.get(w.getId()) == null) {
-				// if haven't processed child yet, do it
-				computeReticulation2LSA(w, data);
+		void apply() {
+			growArrays();
+			int relabelled = nextStamp();
+			for (int k = 0; k < relabel.size; k++) {
+				int v = relabel.values[k];
+				if (!removedNodes.get(v) && walkStamp[v] != relabelled) {
+					walkStamp[v] = relabelled;
+					updateLabel(nodes.get(v));
+				}
+			}
+			IntList reticulations = new IntList();
+			int reticulate = nextStamp();
+			updateDominators(inChanged, reticulations, reticulate);
+			updateBelow(outChanged, reticulations, reticulate);
+			for (int k = 0; k < reticulations.size; k++) {
+				updateReticulateConfidence(reticulations.values[k]);
 			}
-			reticulationsBelow.addAll(data.node2below.get(w.getId()));
-			if (getInDegree(w) > 1) {
-				reticulationsBelow.add(w);
+		}
+	}
+
+	/**
+	 * Growable list of node ids
+	 */
+	private static class IntList {
+		int[] values = new int[8];
+		int size;
+
+		void add(int v) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
 			}
+			values[size++] = v;
 		}
+	}
+
+	/**
+	 * Binary max-heap of node ids by int priority, packed in longs with the priority in the high word
+	 */
+	private static class NodeQueue {
+		private long[] heap = new long[16];
+		private int size;
 
-		// check whether this is the LSA for any of the reticulations below v
-		List<CNNode> toDelete = new LinkedList<>();
-		for (CNNode r : reticulationsBelow) {
-			// determine which paths from the reticulation lead to this node
-			Map<CNEdge, BitSet> edge2PathSet = data.ret2Edge2PathSet.get(r);
-			BitSet paths = new BitSet();
-			for (CNEdge f : getOutEdges(v)) {
-				BitSet eSet = (BitSet) edge2PathSet.get(f);
-				if (eSet != null) {
-					paths.or(eSet);
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void push(int priority, int v) {
+			if (size == heap.length) {
+				heap = Arrays.copyOf(heap, 2 * size);
+			}
+			long key = ((long) priority << 32) | (v & 0xFFFFFFFFL);
+			int k = size++;
+			while (k > 0) {
+				int p = (k - 1) >>> 1;
+				if (heap[p] >= key) {
+					break;
 				}
+				heap[k] = heap[p];
+				k = p;
 			}
+			heap[k] = key;
+		}
 
-			// if the set of paths equals all alive paths, v is the LSA of r
-			BitSet alive = data.ret2PathSet.get(r);
-			if (paths.equals(alive)) {
-				data.ret2LSA.put(r, v);
-				toDelete.add(r); // don't need to consider this reticulation any more
+		int pop() {
+			long top = heap[0];
+			long last = heap[--size];
+			int k = 0;
+			while (true) {
+				int c = 2 * k + 1;
+				if (c >= size) {
+					break;
+				}
+				if (c + 1 < size && heap[c + 1] > heap[c]) {
+					c++;
+				}
+				if (heap[c] <= last) {
+					break;
+				}
+				heap[k] = heap[c];
+				k = c;
 			}
+			heap[k] = last;
+			return (int) top;
+		}
+	}
+
+	/**
+	 * Returns a stamp not used by any scratch array yet
+	 */
+	private int nextStamp() {
+		if (stamp == Integer.MAX_VALUE) {
+			Arrays.fill(queuedStamp, 0);
+			Arrays.fill(changedStamp, 0);
+			Arrays.fill(reticulateStamp, 0);
+			Arrays.fill(walkStamp, 0);
+			stamp = 0;
 		}
+		return ++stamp;
+	}
+
+	/**
+	 * Topological rank: clusters by cardinality, each dummy node just above its child
+	 */
+	private int rank(int v) {
+		Cluster c = nodeClusters.get(v);
+		if (c == null) {
+			c = nodeClusters.get(outEdges.get(v).get(0).getTarget().getId());
+			return 2 * c.cardinality() + 1;
+		}
+		return 2 * c.cardinality();
+	}
+
+	private void updateLabel(CNNode v) {
+		BitSet label = (BitSet) nodeClusters.get(v.getId()).clone();
+		for (CNNode y : getCoverChildren(v)) {
+			label.andNot(nodeClusters.get(y.getId()));
+		}
+		ArrayList<PHYNode> groups = new ArrayList<PHYNode>();
+		for (int t = label.nextSetBit(0); t != -1; t = label.nextSetBit(t + 1)) {
+			groups.add(mutationGroups.get(t));
+		}
+		v.setLabel(groups);
+	}
+
+	private void growArrays() {
+		int n = nodes.size();
+		if (dominator.length < n) {
+			int old = dominator.length;
+			dominator = Arrays.copyOf(dominator, n);
+			Arrays.fill(dominator, old, n, -1);
+			intervalSum = Arrays.copyOf(intervalSum, n);
+			intervalCount = Arrays.copyOf(intervalCount, n);
+			belowSum = Arrays.copyOf(belowSum, n);
+			belowCount = Arrays.copyOf(belowCount, n);
+		}
+		if (walkStamp.length < n) {
+			int capacity = Math.max(n, 2 * walkStamp.length);
+			queuedStamp = Arrays.copyOf(queuedStamp, capacity);
+			changedStamp = Arrays.copyOf(changedStamp, capacity);
+			reticulateStamp = Arrays.copyOf(reticulateStamp, capacity);
+			walkStamp = Arrays.copyOf(walkStamp, capacity);
+			stack = new int[capacity];
+		}
+	}
 
-		// don't need to consider reticulations for which LSA has been found
-		for (CNNode u : toDelete)
-			reticulationsBelow.remove(u);
+	private void addReticulation(int v, IntList reticulations, int reticulate) {
+		if (inEdges.get(v).size() > 1 && reticulateStamp[v] != reticulate) {
+			reticulateStamp[v] = reticulate;
+			reticulations.add(v);
+		}
+	}
 
-		// all paths are pulled up the first in-edge
-		if (getInDegree(v) >= 1) {
-			for (CNNode r : reticulationsBelow) {
-				// determine which paths from the reticulation lead to this node
-				Map<CNEdge, BitSet> edge2PathSet = data.ret2Edge2PathSet.get(r);
-				BitSet newSet = new BitSet();
-				for (CNEdge e : getOutEdges(v)) {
-					BitSet pathSet = edge2PathSet.get(e);
-					if (pathSet != null)
-						newSet.or(pathSet);
+	/**
+	 * Recomputes dominators and interval sums from the nodes whose in-edges changed, in
+	 * topological order. The children of a node are visited if its values changed, if its
+	 * in-edges changed, or if its dominator was visited for one of these reasons: a change
+	 * to a node can only affect the nodes below it that it does not dominate through the
+	 * nodes it dominates.
+	 */
+	private void updateDominators(IntList sources, IntList reticulations, int reticulate) {
+		int pass = nextStamp();
+		for (int k = 0; k < sources.size; k++) {
+			int v = sources.values[k];
+			if (!removedNodes.get(v) && queuedStamp[v] != pass) {
+				queuedStamp[v] = pass;
+				changedStamp[v] = pass;
+				queue.push(rank(v), v);
+			}
+		}
+		while (!queue.isEmpty()) {
+			int v = queue.pop();
+			int oldDominator = dominator[v];
+			double oldSum = intervalSum[v];
+			long oldCount = intervalCount[v];
+			updateDominator(v);
+			int d = dominator[v];
+			if (d != oldDominator || intervalSum[v] != oldSum || intervalCount[v] != oldCount
+					|| (d != -1 && changedStamp[d] == pass)) {
+				changedStamp[v] = pass;
+			}
+			addReticulation(v, reticulations, reticulate);
+			if (changedStamp[v] != pass) {
+				continue;
+			}
+			for (CNEdge e : outEdges.get(v)) {
+				int w = e.getTarget().getId();
+				if (queuedStamp[w] != pass) {
+					queuedStamp[w] = pass;
+					queue.push(rank(w), w);
 				}
-				edge2PathSet.put(getInEdges(v).get(0), newSet);
 			}
 		}
+	}
 
-		// open new paths on all additional in-edges
-		if (getInDegree(v) >= 2) {
-			ArrayList<CNEdge> inEdgesOfV = getInEdges(v);
+	private void updateDominator(int v) {
+		ArrayList<CNEdge> in = inEdges.get(v);
+		if (v == getRoot().getId() || in.isEmpty()) {
+			dominator[v] = -1;
+			intervalSum[v] = 0;
+			intervalCount[v] = 0;
+			return;
+		}
+		if (in.size() == 1) {
+			CNEdge e = in.get(0);
+			dominator[v] = e.getSource().getId();
+			intervalSum[v] = (e.isReticulate() ? 0 : e.getConfidence());
+			intervalCount[v] = (e.isReticulate() ? 0 : 1);
+			return;
+		}
+		int d = -1;
+		for (CNEdge e : in) {
+			int u = e.getSource().getId();
+			d = (d == -1 ? u : intersect(d, u));
+		}
+		dominator[v] = d;
 
-			for (CNNode r : reticulationsBelow) {
-				BitSet existingPathsForR = data.ret2PathSet.get(r);
-				Map<CNEdge, BitSet> edge2PathSet = data.ret2Edge2PathSet.get(r);
+		// non-reticulate in-edges of the nodes between d and v
+		double sum = 0;
+		long count = 0;
+		int walk = nextStamp();
+		int top = 0;
+		stack[top++] = v;
+		walkStamp[v] = walk;
+		while (top > 0) {
+			int y = stack[--top];
+			for (CNEdge e : inEdges.get(y)) {
+				if (!e.isReticulate()) {
+					sum += e.getConfidence();
+					count++;
+				}
+				int x = e.getSource().getId();
+				if (x != d && walkStamp[x] != walk) {
+					walkStamp[x] = walk;
+					stack[top++] = x;
+				}
+			}
+		}
+		intervalSum[v] = sum;
+		intervalCount[v] = count;
+	}
 
-				// start with the second in-edge
-				for (int i = 1; i < inEdgesOfV.size(); i++) {
-					CNEdge e = inEdgesOfV.get(i);
-					BitSet pathsForEdge = new BitSet();
-					int pathNum = existingPathsForR.nextClearBit(1);
-					existingPathsForR.set(pathNum);
-					pathsForEdge.set(pathNum);
-					edge2PathSet.put(e, pathsForEdge);
+	/**
+	 * Nearest common ancestor of a and b in the dominator tree, walking up from both
+	 * in turns until one reaches a node the other has passed
+	 */
+	private int intersect(int a, int b) {
+		int walk = nextStamp();
+		while (a != -1 || b != -1) {
+			if (a != -1) {
+				if (walkStamp[a] == walk) {
+					return a;
+				}
+				walkStamp[a] = walk;
+				a = dominator[a];
+			}
+			if (b != -1) {
+				if (walkStamp[b] == walk) {
+					return b;
 				}
+				walkStamp[b] = walk;
+				b = dominator[b];
 			}
 		}
+		return -1;
 	}
 
 	/**
-	 * Recursively compute the sum of non-reticulate confidences and count below each node.
+	 * Recomputes the confidence sums below the nodes whose out-edges changed and, while
+	 * they change, below their ancestors, in reverse topological order
 	 */
-	private void computeConfidenceBelow(CNNode v, double[] confidenceBelow, int[] countBelow) {
-		double confidence = 0;
-		int count = 0;
-		for (CNEdge e : getOutEdges(v)) {
-			if (!e.isReticulate()) {
-				confidence += e.getConfidence();
-				count++;
+	private void updateBelow(IntList sources, IntList reticulations, int reticulate) {
+		int pass = nextStamp();
+		for (int k = 0; k < sources.size; k++) {
+			int v = sources.values[k];
+			if (!removedNodes.get(v) && queuedStamp[v] != pass) {
+				queuedStamp[v] = pass;
+				queue.push(-rank(v), v);
+			}
+		}
+		while (!queue.isEmpty()) {
+			int v = queue.pop();
+			double confidence = 0;
+			long count = 0;
+			for (CNEdge e : outEdges.get(v)) {
+				int w = e.getTarget().getId();
+				if (!e.isReticulate()) {
+					confidence += e.getConfidence();
+					count++;
+				}
+				confidence += belowSum[w];
+				count += belowCount[w];
+			}
+			addReticulation(v, reticulations, reticulate);
+			if (confidence == belowSum[v] && count == belowCount[v]) {
+				continue;
 			}
-			CNNode w = e.getTarget();
-			if (countBelow[w.getId()] == -1) {
-				System.out.println(nodes);
-				System.out.println(outEdges);
-				System.out.println(confidenceBelow);
-				computeConfidenceBelow(w, confidenceBelow, countBelow);
+			belowSum[v] = confidence;
+			belowCount[v] = count;
+			for (CNEdge e : inEdges.get(v)) {
+				int u = e.getSource().getId();
+				if (queuedStamp[u] != pass) {
+					queuedStamp[u] = pass;
+					queue.push(-rank(u), u);
+				}
 			}
-			confidence += confidenceBelow[w.getId()];
-			count += countBelow[w.getId()];
 		}
-		confidenceBelow[v.getId()] = confidence;
-		countBelow[v.getId()] = count;
 	}
 
 	/**
-	 * Computes the average confidence of a collection of edges. Uses only non-reticulate edges.
+	 * Recomputes the confidences of the in-edges of reticulation r, as in computeConfidenceOnReticulate;
+	 * the confidence between the LSA a and a parent u is the sum of the intervals on the dominator
+	 * tree path from u up to a
 	 */
-	private double computeAverageConfidence(Collection<CNEdge> edges) {
-		double sum = 0;
-		int count = 0;
-		for (CNEdge e : edges) {
+	private void updateReticulateConfidence(int r) {
+		if (removedNodes.get(r)) {
+			return;
+		}
+		int a = dominator[r];
+		ArrayList<CNEdge> in = inEdges.get(r);
+		double[] newConfidence = new double[in.size()];
+		double total = 0;
+		for (int k = 0; k < in.size(); k++) {
+			CNEdge e = in.get(k);
+			double sum = 0;
+			long count = 0;
+			for (int x = e.getSource().getId(); x != a && x != -1; x = dominator[x]) {
+				sum += intervalSum[x];
+				count += intervalCount[x];
+			}
 			if (!e.isReticulate()) {
 				sum += e.getConfidence();
 				count++;
 			}
+			newConfidence[k] = (count == 0 ? 0 : sum / count);
+			total += newConfidence[k];
+		}
+		double averageConfidenceBelow = (belowCount[r] > 0 ? belowSum[r] / belowCount[r] : belowSum[r]);
+		for (int k = 0; k < in.size(); k++) {
+			double share = (total == 0 ? 0 : newConfidence[k] / total);
+			in.get(k).setConfidence(share * averageConfidenceBelow);
 		}
-		return (count == 0 ? 0 : sum / count);
 	}
-}
\ No newline at end of file
+}
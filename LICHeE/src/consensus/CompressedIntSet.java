@@ -0,0 +1,473 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Compressed set of non-negative ints, used for the tree numbers of a cluster.
+ *
+ * Values are split by their upper 16 bits into chunks (as in roaring bitmaps).
+ * A chunk holding at most 4096 values is a sorted char array (2 bytes per value),
+ * a denser chunk is a 1024-word bitmap (8 KB for up to 65536 values).
+ * Union, intersection and intersection cardinality work chunk by chunk
+ * without materializing individual values.
+ */
+public class CompressedIntSet implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Largest size of an array chunk before it is converted into a bitmap */
+	private static final int MAX_ARRAY_SIZE = 4096;
+
+	private static final int BITMAP_WORDS = 1 << 10;
+
+	private char[] keys;
+	private Chunk[] chunks;
+	private int numChunks;
+
+	public CompressedIntSet() {
+		keys = new char[4];
+		chunks = new Chunk[4];
+	}
+
+	/** Copy constructor */
+	public CompressedIntSet(CompressedIntSet other) {
+		keys = Arrays.copyOf(other.keys, Math.max(other.numChunks, 4));
+		chunks = new Chunk[keys.length];
+		numChunks = other.numChunks;
+		for (int i = 0; i < numChunks; i++) {
+			chunks[i] = other.chunks[i].copy();
+		}
+	}
+
+	public CompressedIntSet(List<Integer> values) {
+		this();
+		for (int v : values) {
+			add(v);
+		}
+	}
+
+	/**
+	 * Adds a non-negative value
+	 * @return true if the value was not yet in the set
+	 */
+	public boolean add(int value) {
+		char key = (char) (value >>> 16);
+		int i = findChunk(key);
+		if (i < 0) {
+			i = -i - 1;
+			insertChunk(i, key, new ArrayChunk());
+		}
+		Chunk c = chunks[i];
+		int before = c.cardinality();
+		chunks[i] = c.add((char) value);
+		return chunks[i].cardinality() != before;
+	}
+
+	public boolean contains(int value) {
+		int i = findChunk((char) (value >>> 16));
+		return i >= 0 && chunks[i].contains((char) value);
+	}
+
+	public int cardinality() {
+		int count = 0;
+		for (int i = 0; i < numChunks; i++) {
+			count += chunks[i].cardinality();
+		}
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return numChunks == 0;
+	}
+
+	/**
+	 * Returns the largest value, or -1 if the set is empty
+	 */
+	public int last() {
+		if (numChunks == 0) {
+			return -1;
+		}
+		return (keys[numChunks - 1] << 16) | chunks[numChunks - 1].last();
+	}
+
+	/**
+	 * Adds all values of other to this set
+	 */
+	public void or(CompressedIntSet other) {
+		CompressedIntSet union = union(this, other);
+		keys = union.keys;
+		chunks = union.chunks;
+		numChunks = union.numChunks;
+	}
+
+	/**
+	 * Returns the values in increasing order
+	 */
+	public int[] toArray() {
+		int[] result = new int[cardinality()];
+		int n = 0;
+		for (int i = 0; i < numChunks; i++) {
+			n = chunks[i].copyTo(result, n, keys[i] << 16);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the values in increasing order as a list
+	 */
+	public List<Integer> toList() {
+		int[] values = toArray();
+		List<Integer> result = new ArrayList<Integer>(values.length);
+		for (int v : values) {
+			result.add(v);
+		}
+		return result;
+	}
+
+	/**
+	 * computes the union of A and B
+	 */
+	public static CompressedIntSet union(CompressedIntSet A, CompressedIntSet B) {
+		CompressedIntSet result = new CompressedIntSet();
+		int i = 0, j = 0;
+		while (i < A.numChunks || j < B.numChunks) {
+			int a = i < A.numChunks ? A.keys[i] : Integer.MAX_VALUE;
+			int b = j < B.numChunks ? B.keys[j] : Integer.MAX_VALUE;
+			if (a < b) {
+				result.appendChunk((char) a, A.chunks[i++].copy());
+			} else if (a > b) {
+				result.appendChunk((char) b, B.chunks[j++].copy());
+			} else {
+				result.appendChunk((char) a, A.chunks[i++].or(B.chunks[j++]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * computes the intersection of A and B
+	 */
+	public static CompressedIntSet intersection(CompressedIntSet A, CompressedIntSet B) {
+		CompressedIntSet result = new CompressedIntSet();
+		int i = 0, j = 0;
+		while (i < A.numChunks && j < B.numChunks) {
+			if (A.keys[i] < B.keys[j]) {
+				i++;
+			} else if (A.keys[i] > B.keys[j]) {
+				j++;
+			} else {
+				Chunk c = A.chunks[i++].and(B.chunks[j++]);
+				if (c.cardinality() > 0) {
+					result.appendChunk(A.keys[i - 1], c);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * computes |A & B| without building the intersection
+	 */
+	public static int intersectionCardinality(CompressedIntSet A, CompressedIntSet B) {
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < A.numChunks && j < B.numChunks) {
+			if (A.keys[i] < B.keys[j]) {
+				i++;
+			} else if (A.keys[i] > B.keys[j]) {
+				j++;
+			} else {
+				count += A.chunks[i++].andCardinality(B.chunks[j++]);
+			}
+		}
+		return count;
+	}
+
+	private int findChunk(char key) {
+		return Arrays.binarySearch(keys, 0, numChunks, key);
+	}
+
+	private void insertChunk(int i, char key, Chunk c) {
+		if (numChunks == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * numChunks);
+			chunks = Arrays.copyOf(chunks, 2 * numChunks);
+		}
+		System.arraycopy(keys, i, keys, i + 1, numChunks - i);
+		System.arraycopy(chunks, i, chunks, i + 1, numChunks - i);
+		keys[i] = key;
+		chunks[i] = c;
+		numChunks++;
+	}
+
+	private void appendChunk(char key, Chunk c) {
+		insertChunk(numChunks, key, c);
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof CompressedIntSet)) {
+			return false;
+		}
+		CompressedIntSet s = (CompressedIntSet) o;
+		return cardinality() == s.cardinality() && intersectionCardinality(this, s) == cardinality();
+	}
+
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	/**
+	 * Values sharing the same upper 16 bits
+	 */
+	private static abstract class Chunk implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		abstract int cardinality();
+		abstract boolean contains(char v);
+		/** Adds v, returning the chunk to use from now on */
+		abstract Chunk add(char v);
+		abstract char last();
+		abstract Chunk copy();
+		abstract BitmapChunk toBitmap();
+		/** Writes high | v for every value v, returning the next free position */
+		abstract int copyTo(int[] dest, int pos, int high);
+
+		Chunk or(Chunk other) {
+			if (this instanceof ArrayChunk && other instanceof ArrayChunk) {
+				return ((ArrayChunk) this).or((ArrayChunk) other);
+			}
+			BitmapChunk result = toBitmap();
+			if (result == this) {
+				result = (BitmapChunk) copy();
+			}
+			result.orInPlace(other);
+			return result;
+		}
+
+		Chunk and(Chunk other) {
+			if (this instanceof BitmapChunk && other instanceof BitmapChunk) {
+				return ((BitmapChunk) this).and((BitmapChunk) other);
+			}
+			ArrayChunk small = (ArrayChunk) (this instanceof ArrayChunk ? this : other);
+			Chunk large = (small == this ? other : this);
+			ArrayChunk result = new ArrayChunk();
+			result.values = new char[Math.max(small.size, 1)];
+			for (int k = 0; k < small.size; k++) {
+				if (large.contains(small.values[k])) {
+					result.values[result.size++] = small.values[k];
+				}
+			}
+			return result;
+		}
+
+		int andCardinality(Chunk other) {
+			if (this instanceof BitmapChunk && other instanceof BitmapChunk) {
+				long[] a = ((BitmapChunk) this).words;
+				long[] b = ((BitmapChunk) other).words;
+				int count = 0;
+				for (int k = 0; k < BITMAP_WORDS; k++) {
+					count += Long.bitCount(a[k] & b[k]);
+				}
+				return count;
+			}
+			ArrayChunk small = (ArrayChunk) (this instanceof ArrayChunk ? this : other);
+			Chunk large = (small == this ? other : this);
+			int count = 0;
+			for (int k = 0; k < small.size; k++) {
+				if (large.contains(small.values[k])) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Sparse chunk: sorted array of the lower 16 bits
+	 */
+	private static class ArrayChunk extends Chunk {
+		private static final long serialVersionUID = 1L;
+		char[] values = new char[4];
+		int size;
+
+		int cardinality() {
+			return size;
+		}
+
+		boolean contains(char v) {
+			return Arrays.binarySearch(values, 0, size, v) >= 0;
+		}
+
+		Chunk add(char v) {
+			// tree numbers usually arrive in increasing order
+			int i = (size > 0 && values[size - 1] < v) ? -size - 1 : Arrays.binarySearch(values, 0, size, v);
+			if (i >= 0) {
+				return this;
+			}
+			if (size == MAX_ARRAY_SIZE) {
+				return toBitmap().add(v);
+			}
+			i = -i - 1;
+			if (size == values.length) {
+				values = Arrays.copyOf(values, Math.min(2 * size, MAX_ARRAY_SIZE));
+			}
+			System.arraycopy(values, i, values, i + 1, size - i);
+			values[i] = v;
+			size++;
+			return this;
+		}
+
+		char last() {
+			return values[size - 1];
+		}
+
+		Chunk copy() {
+			ArrayChunk c = new ArrayChunk();
+			c.values = Arrays.copyOf(values, Math.max(size, 1));
+			c.size = size;
+			return c;
+		}
+
+		BitmapChunk toBitmap() {
+			BitmapChunk b = new BitmapChunk();
+			for (int k = 0; k < size; k++) {
+				b.words[values[k] >>> 6] |= 1L << values[k];
+			}
+			b.cardinality = size;
+			return b;
+		}
+
+		int copyTo(int[] dest, int pos, int high) {
+			for (int k = 0; k < size; k++) {
+				dest[pos++] = high | values[k];
+			}
+			return pos;
+		}
+
+		Chunk or(ArrayChunk other) {
+			if (size + other.size > MAX_ARRAY_SIZE) {
+				BitmapChunk b = toBitmap();
+				b.orInPlace(other);
+				return b;
+			}
+			ArrayChunk result = new ArrayChunk();
+			result.values = new char[Math.max(size + other.size, 1)];
+			int i = 0, j = 0;
+			while (i < size || j < other.size) {
+				if (j == other.size || (i < size && values[i] < other.values[j])) {
+					result.values[result.size++] = values[i++];
+				} else if (i == size || other.values[j] < values[i]) {
+					result.values[result.size++] = other.values[j++];
+				} else {
+					result.values[result.size++] = values[i++];
+					j++;
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Dense chunk: bitmap over the lower 16 bits
+	 */
+	private static class BitmapChunk extends Chunk {
+		private static final long serialVersionUID = 1L;
+		final long[] words = new long[BITMAP_WORDS];
+		int cardinality;
+
+		int cardinality() {
+			return cardinality;
+		}
+
+		boolean contains(char v) {
+			return (words[v >>> 6] & (1L << v)) != 0;
+		}
+
+		Chunk add(char v) {
+			long mask = 1L << v;
+			if ((words[v >>> 6] & mask) == 0) {
+				words[v >>> 6] |= mask;
+				cardinality++;
+			}
+			return this;
+		}
+
+		char last() {
+			for (int k = BITMAP_WORDS - 1; ; k--) {
+				if (words[k] != 0) {
+					return (char) ((k << 6) + 63 - Long.numberOfLeadingZeros(words[k]));
+				}
+			}
+		}
+
+		Chunk copy() {
+			BitmapChunk c = new BitmapChunk();
+			System.arraycopy(words, 0, c.words, 0, BITMAP_WORDS);
+			c.cardinality = cardinality;
+			return c;
+		}
+
+		BitmapChunk toBitmap() {
+			return this;
+		}
+
+		int copyTo(int[] dest, int pos, int high) {
+			for (int k = 0; k < BITMAP_WORDS; k++) {
+				for (long bits = words[k]; bits != 0; bits &= bits - 1) {
+					dest[pos++] = high | ((k << 6) + Long.numberOfTrailingZeros(bits));
+				}
+			}
+			return pos;
+		}
+
+		void orInPlace(Chunk other) {
+			if (other instanceof BitmapChunk) {
+				long[] b = ((BitmapChunk) other).words;
+				int count = 0;
+				for (int k = 0; k < BITMAP_WORDS; k++) {
+					words[k] |= b[k];
+					count += Long.bitCount(words[k]);
+				}
+				cardinality = count;
+			} else {
+				ArrayChunk a = (ArrayChunk) other;
+				for (int k = 0; k < a.size; k++) {
+					add(a.values[k]);
+				}
+			}
+		}
+
+		Chunk and(BitmapChunk other) {
+			BitmapChunk result = new BitmapChunk();
+			int count = 0;
+			for (int k = 0; k < BITMAP_WORDS; k++) {
+				result.words[k] = words[k] & other.words[k];
+				count += Long.bitCount(result.words[k]);
+			}
+			result.cardinality = count;
+			if (count > MAX_ARRAY_SIZE) {
+				return result;
+			}
+			// sparse result: store as an array
+			ArrayChunk a = new ArrayChunk();
+			a.values = new char[Math.max(count, 1)];
+			for (int k = 0; k < BITMAP_WORDS; k++) {
+				for (long bits = result.words[k]; bits != 0; bits &= bits - 1) {
+					a.values[a.size++] = (char) ((k << 6) + Long.numberOfTrailingZeros(bits));
+				}
+			}
+			return a;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Strict, majority-rule and greedy consensus trees of weighted clusters.
+ *
+ * Clusters are sets of mutation groups (bit t is mutationGroups.get(t)) with a confidence,
+ * the fraction of the ensemble containing them, as produced by ClusterAccumulator.
+ * The strict consensus keeps the clusters of confidence 1, the majority-rule consensus those
+ * above 1/2, and the greedy consensus goes through all clusters by decreasing confidence,
+ * keeping each one compatible with all those kept so far.
+ *
+ * Kept clusters are packed as rows of one long matrix, so that a candidate is tested
+ * against all of them with word-level loops and no allocation.
+ *
+ * In the resulting PHYTree, every kept cluster is the subtree of one of its groups, placed
+ * under the group of the smallest kept cluster containing it. The top group of a cluster is
+ * the one of its groups not in a smaller kept cluster that lies in the least weight of input
+ * clusters strictly inside it; the other such groups hang from it. A kept cluster that is the
+ * union of smaller kept clusters has no group of its own and is not represented in the tree.
+ */
+public class ConsensusTreeBuilder {
+	public enum Method { STRICT, MAJORITY, GREEDY }
+
+	private static final double EPSILON = 1e-9;
+
+	private final ArrayList<PHYNode> mutationGroups;
+	private final List<Cluster> clusters;
+	private final int numTaxa;
+	private final int words;
+
+	/** Input clusters, packed by row */
+	private final long[] input;
+	private final int[] cardinalities;
+
+	public ConsensusTreeBuilder(ArrayList<PHYNode> mutationGroups, List<Cluster> clusters) {
+		this.mutationGroups = mutationGroups;
+		this.clusters = clusters;
+		numTaxa = mutationGroups.size();
+		words = Math.max(PackedCluster.numWords(numTaxa), 1);
+		input = new long[clusters.size() * words];
+		cardinalities = new int[clusters.size()];
+		for (int i = 0; i < clusters.size(); i++) {
+			Cluster c = clusters.get(i);
+			if (c.length() > numTaxa) {
+				throw new IllegalArgumentException("Cluster " + c + " has mutation groups beyond " + numTaxa);
+			}
+			for (int t = c.nextSetBit(0); t != -1; t = c.nextSetBit(t + 1)) {
+				input[i * words + (t >>> 6)] |= 1L << t;
+			}
+			cardinalities[i] = c.cardinality();
+		}
+	}
+
+	/**
+	 * Returns the indices of the clusters kept by the given method, by decreasing confidence
+	 */
+	public int[] getAcceptedClusters(Method method) {
+		Integer[] order = new Integer[clusters.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(clusters.get(b).getConfidence(), clusters.get(a).getConfidence());
+				return c != 0 ? c : cardinalities[b] - cardinalities[a];
+			}
+		});
+
+		long[] accepted = new long[Math.max(order.length, 1) * words];
+		int[] indices = new int[order.length];
+		int numAccepted = 0;
+		for (int i : order) {
+			double confidence = clusters.get(i).getConfidence();
+			if ((method == Method.STRICT && confidence < 1 - EPSILON)
+					|| (method == Method.MAJORITY && confidence <= 0.5)) {
+				break;
+			}
+			if (cardinalities[i] == 0 || !isCompatible(i, accepted, numAccepted)) {
+				continue;
+			}
+			System.arraycopy(input, i * words, accepted, numAccepted * words, words);
+			indices[numAccepted++] = i;
+		}
+		return Arrays.copyOf(indices, numAccepted);
+	}
+
+	/**
+	 * Tests input cluster i against the first numAccepted rows of accepted;
+	 * a duplicate of a kept cluster counts as incompatible
+	 */
+	private boolean isCompatible(int i, long[] accepted, int numAccepted) {
+		int offset = i * words;
+		for (int j = 0; j < numAccepted; j++) {
+			if (PackedCluster.incompatible(input, offset, accepted, j * words, words)
+					|| PackedCluster.equals(input, offset, accepted, j * words, words)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds the consensus tree of the given method below root
+	 */
+	public PHYTree build(Method method, PHYNode root) {
+		int[] accepted = getAcceptedClusters(method);
+		Integer[] order = new Integer[accepted.length];
+		for (int k = 0; k < accepted.length; k++) {
+			order[k] = accepted[k];
+		}
+		// larger clusters first, so that each one's owner is its smallest superset
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return cardinalities[b] - cardinalities[a];
+			}
+		});
+
+		int k = order.length;
+		int[] owner = new int[numTaxa]; // position in order of the smallest kept cluster containing t
+		Arrays.fill(owner, -1);
+		int[] parent = new int[k];
+		for (int c = 0; c < k; c++) {
+			int offset = order[c] * words;
+			parent[c] = owner[firstBit(input, offset)];
+			for (int w = 0; w < words; w++) {
+				for (long bits = input[offset + w]; bits != 0; bits &= bits - 1) {
+					owner[(w << 6) + Long.numberOfTrailingZeros(bits)] = c;
+				}
+			}
+		}
+
+		// groups of each cluster outside its kept subclusters
+		ArrayList<ArrayList<Integer>> residual = new ArrayList<ArrayList<Integer>>(k);
+		for (int c = 0; c < k; c++) {
+			residual.add(new ArrayList<Integer>());
+		}
+		for (int t = 0; t < numTaxa; t++) {
+			if (owner[t] != -1) {
+				residual.get(owner[t]).add(t);
+			}
+		}
+		// a cluster that is the union of its subclusters has no group of its own and is left out
+		int[] top = new int[k];
+		for (int c = 0; c < k; c++) {
+			top[c] = residual.get(c).isEmpty() ? -1 : getTopGroup(order[c], residual.get(c));
+			while (parent[c] != -1 && top[parent[c]] == -1) {
+				parent[c] = parent[parent[c]];
+			}
+		}
+
+		PHYTree tree = new PHYTree();
+		tree.addNode(root);
+		for (int t = 0; t < numTaxa; t++) {
+			tree.addNode(mutationGroups.get(t));
+		}
+		for (int c = 0; c < k; c++) {
+			if (top[c] == -1) {
+				continue;
+			}
+			PHYNode node = mutationGroups.get(top[c]);
+			tree.addEdge(parent[c] == -1 ? root : mutationGroups.get(top[parent[c]]), node);
+			for (int t : residual.get(c)) {
+				if (t != top[c]) {
+					tree.addEdge(node, mutationGroups.get(t));
+				}
+			}
+		}
+		for (int t = 0; t < numTaxa; t++) {
+			if (owner[t] == -1) {
+				tree.addEdge(root, mutationGroups.get(t));
+			}
+		}
+		return tree;
+	}
+
+	private int firstBit(long[] a, int offset) {
+		for (int w = 0; w < words; w++) {
+			if (a[offset + w] != 0) {
+				return (w << 6) + Long.numberOfTrailingZeros(a[offset + w]);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Picks the top group of cluster c among its residual groups: the one carried by the least
+	 * confidence of input clusters strictly inside c
+	 */
+	private int getTopGroup(int c, ArrayList<Integer> candidates) {
+		if (candidates.size() == 1) {
+			return candidates.get(0);
+		}
+		double[] below = new double[candidates.size()];
+		int offset = c * words;
+		for (int d = 0; d < clusters.size(); d++) {
+			if (cardinalities[d] >= cardinalities[c] || !PackedCluster.contains(input, offset, input, d * words, words)) {
+				continue;
+			}
+			for (int r = 0; r < below.length; r++) {
+				int t = candidates.get(r);
+				if ((input[d * words + (t >>> 6)] & (1L << t)) != 0) {
+					below[r] += clusters.get(d).getConfidence();
+				}
+			}
+		}
+		int best = 0;
+		for (int r = 1; r < below.length; r++) {
+			if (below[r] < below[best]) {
+				best = r;
+			}
+		}
+		return candidates.get(best);
+	}
+
+	/**
+	 * Returns the kept clusters of the given method, in decreasing confidence
+	 */
+	public ArrayList<Cluster> getConsensusClusters(Method method) {
+		int[] accepted = getAcceptedClusters(method);
+		ArrayList<Cluster> result = new ArrayList<Cluster>(accepted.length);
+		for (int i : accepted) {
+			result.add(clusters.get(i));
+		}
+		return result;
+	}
+}
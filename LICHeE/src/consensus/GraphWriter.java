@@ -0,0 +1,551 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Writes trees, cluster networks and cluster lists in Newick, Graphviz DOT and JSON.
+ *
+ * Output is streamed piece by piece to an Appendable (a Writer, StringBuilder, ...),
+ * so no string of the size of the output is ever built. Traversals are iterative,
+ * so deep trees do not overflow the stack. For files or sockets, open a buffered
+ * (optionally gzip-compressed) writer on a channel with open().
+ *
+ * Newick names: the root is GL, sample leaves are sample_i and mutation groups their node id.
+ * Networks are written in extended Newick, where each reticulation is expanded below its
+ * first parent and referenced as #Hk below the others.
+ */
+public class GraphWriter {
+	public enum Format { NEWICK, DOT, JSON }
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private GraphWriter() {
+	}
+
+	/**
+	 * Opens a buffered UTF-8 writer on a channel, gzip-compressed if requested.
+	 * Closing the writer finishes the compressed stream and closes the channel.
+	 */
+	public static Writer open(WritableByteChannel channel, boolean gzip) throws IOException {
+		OutputStream out = Channels.newOutputStream(channel);
+		if (gzip) {
+			out = new GZIPOutputStream(out, BUFFER_SIZE);
+		}
+		return new BufferedWriter(new OutputStreamWriter(out, UTF8), BUFFER_SIZE);
+	}
+
+	public static void write(PHYTree tree, Format format, WritableByteChannel channel, boolean gzip) throws IOException {
+		Writer out = open(channel, gzip);
+		try {
+			write(tree, format, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void write(ClusterNetwork network, Format format, WritableByteChannel channel, boolean gzip) throws IOException {
+		Writer out = open(channel, gzip);
+		try {
+			write(network, format, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void write(List<Cluster> clusters, Format format, WritableByteChannel channel, boolean gzip) throws IOException {
+		Writer out = open(channel, gzip);
+		try {
+			write(clusters, format, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void write(PHYTree tree, Format format, Appendable out) throws IOException {
+		switch (format) {
+		case NEWICK:
+			writeNewick(tree, out);
+			break;
+		case DOT:
+			writeDot(tree, out);
+			break;
+		default:
+			writeJson(tree, out);
+		}
+	}
+
+	public static void write(ClusterNetwork network, Format format, Appendable out) throws IOException {
+		switch (format) {
+		case NEWICK:
+			writeNewick(network, out);
+			break;
+		case DOT:
+			writeDot(network, out);
+			break;
+		default:
+			writeJson(network, out);
+		}
+	}
+
+	/**
+	 * Writes a cluster list; there is no Newick form of a list, which is written as one
+	 * tab-separated line per cluster (id, taxa, weight, confidence) instead
+	 */
+	public static void write(List<Cluster> clusters, Format format, Appendable out) throws IOException {
+		switch (format) {
+		case NEWICK:
+			writeText(clusters, out);
+			break;
+		case DOT:
+			writeDot(clusters, out);
+			break;
+		default:
+			writeJson(clusters, out);
+		}
+	}
+
+	// ---- trees ----
+
+	/**
+	 * Writes a tree from its only parentless node
+	 * @throws IllegalArgumentException if the nodes do not form a single tree
+	 */
+	public static void writeNewick(PHYTree tree, Appendable out) throws IOException {
+		int root = tree.getRootId();
+		if (root != -1) {
+			int[] stack = new int[tree.getIdCapacity()];
+			int[] next = new int[tree.getIdCapacity()];
+			int top = 0;
+			stack[top] = root;
+			next[top] = tree.getFirstChildId(root);
+			if (next[top] != -1) {
+				out.append('(');
+			}
+			while (top >= 0) {
+				int v = stack[top];
+				int w = next[top];
+				if (w != -1) {
+					if (w != tree.getFirstChildId(v)) {
+						out.append(',');
+					}
+					next[top] = tree.getNextSiblingId(w);
+					top++;
+					stack[top] = w;
+					next[top] = tree.getFirstChildId(w);
+					if (next[top] != -1) {
+						out.append('(');
+					}
+					continue;
+				}
+				if (tree.getFirstChildId(v) != -1) {
+					out.append(')');
+				}
+				appendNewickName(tree.getNode(v), out);
+				top--;
+			}
+		}
+		out.append(";\n");
+	}
+
+	private static void appendNewickName(PHYNode n, Appendable out) throws IOException {
+		if (n.isRoot()) {
+			out.append("GL");
+		} else if (n.isLeaf()) {
+			out.append("sample_").append(Integer.toString(n.getLeafSampleId()));
+		} else {
+			out.append(Integer.toString(n.getNodeId()));
+		}
+	}
+
+	public static void writeDot(PHYTree tree, Appendable out) throws IOException {
+		out.append("digraph G {\n");
+		for (int v = tree.getFirstNodeId(); v != -1; v = tree.getNextNodeId(v)) {
+			PHYNode n = tree.getNode(v);
+			out.append("  n").append(Integer.toString(v)).append(" [label=\"");
+			appendLabel(n, out, DOT_ESCAPE);
+			out.append("\"];\n");
+		}
+		for (int v = 0; v < tree.getIdCapacity(); v++) {
+			if (tree.getNode(v) == null) {
+				continue;
+			}
+			for (int w = tree.getFirstChildId(v); w != -1; w = tree.getNextSiblingId(w)) {
+				out.append("  n").append(Integer.toString(v)).append(" -> n").append(Integer.toString(w)).append(";\n");
+			}
+		}
+		out.append("}\n");
+	}
+
+	public static void writeJson(PHYTree tree, Appendable out) throws IOException {
+		out.append("{\"weight\": ");
+		appendNumber(tree.getWeight(), out);
+		out.append(",\n \"nodes\": [");
+		boolean first = true;
+		for (int v = tree.getFirstNodeId(); v != -1; v = tree.getNextNodeId(v)) {
+			out.append(first ? "\n  " : ",\n  ");
+			first = false;
+			appendJson(tree.getNode(v), out);
+		}
+		out.append("],\n \"edges\": [");
+		first = true;
+		for (int v = 0; v < tree.getIdCapacity(); v++) {
+			if (tree.getNode(v) == null) {
+				continue;
+			}
+			for (int w = tree.getFirstChildId(v); w != -1; w = tree.getNextSiblingId(w)) {
+				out.append(first ? "\n  [" : ",\n  [");
+				first = false;
+				out.append(Integer.toString(v)).append(", ").append(Integer.toString(w)).append(']');
+			}
+		}
+		out.append("]}\n");
+	}
+
+	private static void appendJson(PHYNode n, Appendable out) throws IOException {
+		out.append("{\"id\": ").append(Integer.toString(n.getNodeId()));
+		if (n.isRoot()) {
+			out.append(", \"type\": \"root\"}");
+			return;
+		}
+		if (n.isLeaf()) {
+			out.append(", \"type\": \"leaf\", \"sample\": ").append(Integer.toString(n.getLeafSampleId())).append('}');
+			return;
+		}
+		out.append(", \"type\": \"group\", \"tag\": \"");
+		appendEscaped(n.getSampleProfile().getTag(), out, JSON_ESCAPE);
+		out.append("\", \"snvs\": [");
+		List<SNVEntry> snvs = n.getSNVs();
+		for (int i = 0; snvs != null && i < snvs.size(); i++) {
+			out.append(i == 0 ? "\"" : ", \"");
+			appendEscaped(snvs.get(i).toString(), out, JSON_ESCAPE);
+			out.append('"');
+		}
+		out.append("]}");
+	}
+
+	// ---- networks ----
+
+	/**
+	 * Writes the network in extended Newick
+	 */
+	public static void writeNewick(ClusterNetwork network, Appendable out) throws IOException {
+		int n = network.getNumNodes();
+		int[] reticulation = new int[n]; // 1 + number of the reticulation, 0 if none
+		boolean[] expanded = new boolean[n];
+		int numReticulations = 0;
+		CNNode root = network.getRoot();
+		ArrayList<ArrayList<CNEdge>> stackEdges = new ArrayList<ArrayList<CNEdge>>();
+		int[] next = new int[n + 1];
+		ArrayList<CNNode> stack = new ArrayList<CNNode>();
+		stack.add(root);
+		stackEdges.add(network.getOutEdges(root));
+		expanded[root.getId()] = true;
+		if (!stackEdges.get(0).isEmpty()) {
+			out.append('(');
+		}
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			CNNode v = stack.get(top);
+			ArrayList<CNEdge> edges = stackEdges.get(top);
+			if (next[top] < edges.size()) {
+				if (next[top] > 0) {
+					out.append(',');
+				}
+				CNNode w = edges.get(next[top]++).getTarget();
+				int id = w.getId();
+				if (network.getInDegree(w) > 1 && reticulation[id] == 0) {
+					reticulation[id] = ++numReticulations;
+				}
+				if (expanded[id]) {
+					// further parent of a reticulation
+					out.append("#H").append(Integer.toString(reticulation[id]));
+					continue;
+				}
+				expanded[id] = true;
+				stack.add(w);
+				stackEdges.add(network.getOutEdges(w));
+				next[top + 1] = 0;
+				if (!stackEdges.get(top + 1).isEmpty()) {
+					out.append('(');
+				}
+				continue;
+			}
+			if (!edges.isEmpty()) {
+				out.append(')');
+			}
+			appendNewickName(network, v, out);
+			if (reticulation[v.getId()] != 0) {
+				out.append("#H").append(Integer.toString(reticulation[v.getId()]));
+			}
+			stack.remove(top);
+			stackEdges.remove(top);
+		}
+		out.append(";\n");
+	}
+
+	private static void appendNewickName(ClusterNetwork network, CNNode v, Appendable out) throws IOException {
+		ArrayList<PHYNode> label = v.getLabel();
+		for (int i = 0; i < label.size(); i++) {
+			if (i > 0) {
+				out.append('_');
+			}
+			appendNewickName(label.get(i), out);
+		}
+	}
+
+	public static void writeDot(ClusterNetwork network, Appendable out) throws IOException {
+		out.append("digraph G {\n");
+		for (int i = 0; i < network.getNumNodes(); i++) {
+			CNNode v = network.getNode(i);
+			if (network.isRemoved(v)) {
+				continue;
+			}
+			out.append("  n").append(Integer.toString(i)).append(" [label=\"");
+			ArrayList<PHYNode> label = v.getLabel();
+			for (int k = 0; k < label.size(); k++) {
+				if (k > 0) {
+					out.append("\\n");
+				}
+				appendLabel(label.get(k), out, DOT_ESCAPE);
+			}
+			out.append("\\n");
+			appendNumber(v.getConfidence(), out);
+			out.append('"');
+			if (network.getCluster(v) == null) {
+				out.append(", shape=point");
+			}
+			out.append("];\n");
+		}
+		for (int i = 0; i < network.getNumNodes(); i++) {
+			CNNode v = network.getNode(i);
+			if (network.isRemoved(v)) {
+				continue;
+			}
+			for (CNEdge e : network.getOutEdges(v)) {
+				out.append("  n").append(Integer.toString(i)).append(" -> n")
+					.append(Integer.toString(e.getTarget().getId())).append(" [label=\"");
+				appendNumber(e.getConfidence(), out);
+				out.append('"');
+				if (e.isReticulate()) {
+					out.append(", style=dashed");
+				}
+				out.append("];\n");
+			}
+		}
+		out.append("}\n");
+	}
+
+	public static void writeJson(ClusterNetwork network, Appendable out) throws IOException {
+		out.append("{\"nodes\": [");
+		boolean first = true;
+		for (int i = 0; i < network.getNumNodes(); i++) {
+			CNNode v = network.getNode(i);
+			if (network.isRemoved(v)) {
+				continue;
+			}
+			out.append(first ? "\n  " : ",\n  ");
+			first = false;
+			out.append("{\"id\": ").append(Integer.toString(i)).append(", \"confidence\": ");
+			appendNumber(v.getConfidence(), out);
+			out.append(", \"cluster\": ");
+			Cluster c = network.getCluster(v);
+			if (c == null) {
+				out.append("null");
+			} else {
+				appendTaxa(c, out);
+			}
+			out.append(", \"label\": [");
+			ArrayList<PHYNode> label = v.getLabel();
+			for (int k = 0; k < label.size(); k++) {
+				if (k > 0) {
+					out.append(", ");
+				}
+				out.append(Integer.toString(label.get(k).getNodeId()));
+			}
+			out.append("]}");
+		}
+		out.append("],\n \"edges\": [");
+		first = true;
+		for (int i = 0; i < network.getNumNodes(); i++) {
+			CNNode v = network.getNode(i);
+			if (network.isRemoved(v)) {
+				continue;
+			}
+			for (CNEdge e : network.getOutEdges(v)) {
+				out.append(first ? "\n  " : ",\n  ");
+				first = false;
+				out.append("{\"from\": ").append(Integer.toString(i))
+					.append(", \"to\": ").append(Integer.toString(e.getTarget().getId()))
+					.append(", \"confidence\": ");
+				appendNumber(e.getConfidence(), out);
+				out.append(", \"reticulate\": ").append(e.isReticulate() ? "true" : "false").append('}');
+			}
+		}
+		out.append("]}\n");
+	}
+
+	// ---- cluster lists ----
+
+	public static void writeText(List<Cluster> clusters, Appendable out) throws IOException {
+		for (Cluster c : clusters) {
+			out.append(Integer.toString(c.getId())).append('\t');
+			appendTaxaText(c, out);
+			out.append('\t');
+			appendNumber(c.getWeight(), out);
+			out.append('\t');
+			appendNumber(c.getConfidence(), out);
+			out.append('\n');
+		}
+	}
+
+	/**
+	 * Writes the clusters as a DOT graph of their containment (Hasse) relation
+	 */
+	public static void writeDot(List<Cluster> clusters, Appendable out) throws IOException {
+		ArrayList<Cluster> sorted = Cluster.getClustersSortedByDecreasingCardinality(new ArrayList<Cluster>(clusters));
+		out.append("digraph G {\n");
+		for (int i = 0; i < sorted.size(); i++) {
+			out.append("  c").append(Integer.toString(i)).append(" [label=\"");
+			appendTaxaText(sorted.get(i), out);
+			out.append("\\n");
+			appendNumber(sorted.get(i).getConfidence(), out);
+			out.append("\"];\n");
+		}
+		if (!sorted.isEmpty()) {
+			HasseDiagram hasse = new HasseDiagram(sorted);
+			for (int i = 1; i < sorted.size(); i++) {
+				for (int j : hasse.getParents(i)) {
+					if (j == 0 && !Cluster.contains(sorted.get(0), sorted.get(i))) {
+						continue;
+					}
+					out.append("  c").append(Integer.toString(j)).append(" -> c").append(Integer.toString(i)).append(";\n");
+				}
+			}
+		}
+		out.append("}\n");
+	}
+
+	public static void writeJson(List<Cluster> clusters, Appendable out) throws IOException {
+		out.append('[');
+		boolean first = true;
+		for (Cluster c : clusters) {
+			out.append(first ? "\n  " : ",\n  ");
+			first = false;
+			out.append("{\"id\": ").append(Integer.toString(c.getId())).append(", \"taxa\": ");
+			appendTaxa(c, out);
+			out.append(", \"weight\": ");
+			appendNumber(c.getWeight(), out);
+			out.append(", \"confidence\": ");
+			appendNumber(c.getConfidence(), out);
+			out.append(", \"trees\": [");
+			int[] trees = c.getTreeSet().toArray();
+			for (int k = 0; k < trees.length; k++) {
+				if (k > 0) {
+					out.append(", ");
+				}
+				out.append(Integer.toString(trees[k]));
+			}
+			out.append("]}");
+		}
+		out.append("]\n");
+	}
+
+	// ---- helpers ----
+
+	private static final int DOT_ESCAPE = 0;
+	private static final int JSON_ESCAPE = 1;
+
+	/**
+	 * Appends the label of a tree node (as in PHYNode.getLabel()) with escaped line breaks
+	 */
+	private static void appendLabel(PHYNode n, Appendable out, int escape) throws IOException {
+		if (n.isRoot()) {
+			out.append("GL");
+		} else if (n.isLeaf()) {
+			out.append("sample ").append(Integer.toString(n.getLeafSampleId()));
+		} else {
+			appendEscaped(n.getSampleProfile().getTag(), out, escape);
+			out.append("\\n(").append(Integer.toString(n.getSize())).append(')');
+		}
+	}
+
+	private static void appendTaxa(Cluster c, Appendable out) throws IOException {
+		out.append('[');
+		for (int t = c.nextSetBit(0); t != -1; t = c.nextSetBit(t + 1)) {
+			if (t != c.nextSetBit(0)) {
+				out.append(", ");
+			}
+			out.append(Integer.toString(t));
+		}
+		out.append(']');
+	}
+
+	private static void appendTaxaText(Cluster c, Appendable out) throws IOException {
+		for (int t = c.nextSetBit(0); t != -1; t = c.nextSetBit(t + 1)) {
+			if (t != c.nextSetBit(0)) {
+				out.append(',');
+			}
+			out.append(Integer.toString(t));
+		}
+	}
+
+	/**
+	 * Appends a number; JSON has no NaN or infinities, which become null
+	 */
+	private static void appendNumber(double x, Appendable out) throws IOException {
+		if (Double.isNaN(x) || Double.isInfinite(x)) {
+			out.append("null");
+		} else {
+			out.append(Double.toString(x));
+		}
+	}
+
+	private static void appendEscaped(CharSequence s, Appendable out, int escape) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			switch (ch) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append(escape == JSON_ESCAPE ? "\\t" : " ");
+				break;
+			default:
+				if (ch < 0x20) {
+					if (escape == JSON_ESCAPE) {
+						out.append("\\u00");
+						out.append(Character.forDigit(ch >> 4, 16)).append(Character.forDigit(ch & 15, 16));
+					}
+				} else {
+					out.append(ch);
+				}
+			}
+		}
+	}
+}
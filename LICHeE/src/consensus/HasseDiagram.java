@@ -0,0 +1,296 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Cover relation (Hasse diagram) of a list of clusters sorted by decreasing cardinality.
+ *
+ * The clusters are packed into words once, together with a transposed bit matrix holding,
+ * for every taxon, the set of clusters that contain it. The supersets of cluster i among the
+ * clusters 0..i-1 are then the AND of the columns of its taxa, computed 64 clusters at a time.
+ * The lowest of these supersets are found by scanning the candidates by increasing cardinality
+ * and discarding every candidate that lies above an already accepted one in the cover relation.
+ *
+ * Cluster 0 is assumed to contain all others and becomes the parent of every cluster
+ * that has no other superset.
+ *
+ * The lowest supersets of a cluster only depend on clusters of strictly larger cardinality,
+ * so all clusters of one cardinality level can be processed concurrently. Each cluster writes
+ * only its own entry, which keeps the result identical to the sequential computation.
+ */
+public class HasseDiagram {
+	private static final int[] NO_NODES = new int[0];
+
+	/** Number of clusters below which a level or a range of it is processed in one task */
+	private static final int MIN_TASK_SIZE = 64;
+
+	private final int numClusters;
+	private final int numTaxa;
+	private final int rowWords; // words per cluster row
+	private final int columnWords; // words per taxon column
+	private final long[] rows; // cluster x taxon matrix
+	private final long[] columns; // taxon x cluster matrix
+	private final int[] columnCounts; // number of clusters containing each taxon
+	private final int[][] parents;
+	private int[][] children;
+
+	/**
+	 * Computes the cover relation of the given clusters.
+	 * @param clusters - sorted by decreasing cardinality, without duplicates
+	 */
+	public HasseDiagram(List<? extends BitSet> clusters) {
+		this(clusters, 1);
+	}
+
+	/**
+	 * Computes the cover relation of the given clusters, processing each cardinality level
+	 * with up to parallelism threads.
+	 * @param clusters - sorted by decreasing cardinality, without duplicates
+	 */
+	public HasseDiagram(List<? extends BitSet> clusters, int parallelism) {
+		numClusters = clusters.size();
+		int maxTaxon = -1;
+		for (BitSet c : clusters) {
+			maxTaxon = Math.max(maxTaxon, c.length() - 1);
+		}
+		numTaxa = maxTaxon + 1;
+		rowWords = PackedCluster.numWords(numTaxa);
+		columnWords = PackedCluster.numWords(numClusters);
+		rows = new long[numClusters * rowWords];
+		columns = new long[numTaxa * columnWords];
+		columnCounts = new int[numTaxa];
+		int[] cardinality = new int[numClusters];
+		for (int j = 0; j < numClusters; j++) {
+			BitSet c = clusters.get(j);
+			for (int t = c.nextSetBit(0); t != -1; t = c.nextSetBit(t + 1)) {
+				rows[j * rowWords + (t >>> 6)] |= 1L << t;
+				columns[t * columnWords + (j >>> 6)] |= 1L << j;
+				columnCounts[t]++;
+				cardinality[j]++;
+			}
+		}
+
+		parents = new int[numClusters][];
+		if (numClusters > 0) {
+			parents[0] = NO_NODES;
+		}
+		if (parallelism <= 1) {
+			Scratch scratch = new Scratch();
+			for (int i = 1; i < numClusters; i++) {
+				parents[i] = computeParents(i, scratch.candidates, scratch.dominated, scratch.accepted, scratch.stack);
+			}
+			return;
+		}
+
+		final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+			protected Scratch initialValue() {
+				return new Scratch();
+			}
+		};
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			int start = 1;
+			while (start < numClusters) {
+				int end = start + 1;
+				while (end < numClusters && cardinality[end] == cardinality[start]) {
+					end++;
+				}
+				pool.invoke(new LevelTask(start, end, scratch));
+				start = end;
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Per-thread scratch space for computeParents
+	 */
+	private class Scratch {
+		final long[] candidates = new long[columnWords];
+		final long[] dominated = new long[columnWords];
+		final int[] accepted = new int[Math.max(numClusters, 1)];
+		final int[] stack = new int[Math.max(numClusters, 1)];
+	}
+
+	/**
+	 * Computes the parents of clusters start..end-1 of one cardinality level, splitting the range
+	 */
+	private class LevelTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int start;
+		private final int end;
+		private final ThreadLocal<Scratch> scratch;
+
+		LevelTask(int start, int end, ThreadLocal<Scratch> scratch) {
+			this.start = start;
+			this.end = end;
+			this.scratch = scratch;
+		}
+
+		protected void compute() {
+			if (end - start <= MIN_TASK_SIZE) {
+				Scratch s = scratch.get();
+				for (int i = start; i < end; i++) {
+					parents[i] = computeParents(i, s.candidates, s.dominated, s.accepted, s.stack);
+				}
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new LevelTask(start, mid, scratch), new LevelTask(mid, end, scratch));
+			}
+		}
+	}
+
+	/**
+	 * Finds the lowest supersets of cluster i among clusters 1..i-1, or the root if there are none.
+	 * Requires the parents of all clusters of larger cardinality to be computed.
+	 * @param candidates, dominated - scratch rows of columnWords words, dominated cleared
+	 * @param accepted, stack - scratch arrays of at least i entries
+	 */
+	int[] computeParents(int i, long[] candidates, long[] dominated, int[] accepted, int[] stack) {
+		int rowOffset = i * rowWords;
+
+		// start with the rarest taxon of i to shrink the candidate range as early as possible
+		int rarest = -1;
+		for (int w = 0; w < rowWords; w++) {
+			for (long bits = rows[rowOffset + w]; bits != 0; bits &= bits - 1) {
+				int t = (w << 6) + Long.numberOfTrailingZeros(bits);
+				if (rarest == -1 || columnCounts[t] < columnCounts[rarest]) {
+					rarest = t;
+				}
+			}
+		}
+
+		// candidate supersets are restricted to clusters 1..i-1
+		int lo = 0;
+		int hi = (i - 1) >>> 6;
+		long lastMask = (i & 63) == 0 ? -1L : (1L << (i & 63)) - 1;
+		if (rarest == -1) {
+			for (int w = lo; w < hi; w++) {
+				candidates[w] = -1L;
+			}
+			candidates[hi] = lastMask;
+		} else {
+			System.arraycopy(columns, rarest * columnWords, candidates, 0, hi + 1);
+			candidates[hi] &= lastMask;
+		}
+		candidates[0] &= ~1L;
+
+		for (int w = 0; w < rowWords && lo <= hi; w++) {
+			for (long bits = rows[rowOffset + w]; bits != 0 && lo <= hi; bits &= bits - 1) {
+				int t = (w << 6) + Long.numberOfTrailingZeros(bits);
+				if (t == rarest) {
+					continue;
+				}
+				int columnOffset = t * columnWords;
+				for (int k = lo; k <= hi; k++) {
+					candidates[k] &= columns[columnOffset + k];
+				}
+				while (lo <= hi && candidates[lo] == 0) {
+					lo++;
+				}
+				while (hi >= lo && candidates[hi] == 0) {
+					hi--;
+				}
+			}
+		}
+
+		// scan the candidates by increasing cardinality; a candidate is a lowest superset
+		// unless it lies above a lowest superset found before it, in which case it was marked
+		// while walking up the (already complete) cover relation from that superset
+		int numAccepted = 0;
+		for (int k = hi; k >= lo; k--) {
+			for (long bits = candidates[k]; bits != 0; ) {
+				int b = 63 - Long.numberOfLeadingZeros(bits);
+				bits &= ~(1L << b);
+				int j = (k << 6) + b;
+				if ((dominated[k] & (1L << b)) != 0) {
+					continue;
+				}
+				accepted[numAccepted++] = j;
+				int top = 0;
+				stack[top++] = j;
+				while (top > 0) {
+					for (int p : parents[stack[--top]]) {
+						long mask = 1L << p;
+						if ((dominated[p >>> 6] & mask) == 0) {
+							dominated[p >>> 6] |= mask;
+							stack[top++] = p;
+						}
+					}
+				}
+			}
+		}
+		for (int k = 0; k <= hi; k++) {
+			dominated[k] = 0;
+		}
+
+		if (numAccepted == 0) {
+			return new int[] { 0 };
+		}
+		// report parents in increasing index order
+		int[] result = new int[numAccepted];
+		for (int a = 0; a < numAccepted; a++) {
+			result[a] = accepted[numAccepted - 1 - a];
+		}
+		return result;
+	}
+
+	public int size() {
+		return numClusters;
+	}
+
+	/**
+	 * Returns the indices of the lowest supersets of cluster i, in increasing order
+	 */
+	public int[] getParents(int i) {
+		return parents[i];
+	}
+
+	/**
+	 * Returns the indices of the clusters covered by cluster i, in increasing order
+	 */
+	public int[] getChildren(int i) {
+		if (children == null) {
+			int[] count = new int[numClusters];
+			for (int j = 0; j < numClusters; j++) {
+				for (int p : parents[j]) {
+					count[p]++;
+				}
+			}
+			children = new int[numClusters][];
+			for (int p = 0; p < numClusters; p++) {
+				children[p] = count[p] == 0 ? NO_NODES : new int[count[p]];
+				count[p] = 0;
+			}
+			for (int j = 0; j < numClusters; j++) {
+				for (int p : parents[j]) {
+					children[p][count[p]++] = j;
+				}
+			}
+		}
+		return children[i];
+	}
+
+	/**
+	 * Returns the taxa of cluster i that are in none of its children
+	 */
+	public BitSet getLabel(int i) {
+		long[] label = new long[rowWords];
+		System.arraycopy(rows, i * rowWords, label, 0, rowWords);
+		for (int j : getChildren(i)) {
+			for (int w = 0; w < rowWords; w++) {
+				label[w] &= ~rows[j * rowWords + w];
+			}
+		}
+		return BitSet.valueOf(label);
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Incompatibility graph of a list of clusters and its connected components (blobs).
+ *
+ * Clusters i and j are adjacent if they overlap without either containing the other.
+ * The clusters are packed as rows of one long matrix and compared tile by tile: a tile is a
+ * range of clusters small enough for two tiles of rows to stay in cache, and every pair of
+ * tiles is compared once, filling both symmetric halves of a bit-row adjacency matrix.
+ * Tiles are multiples of 64 clusters, so different pairs of tiles write disjoint words of the
+ * matrix and can be processed in parallel without synchronization.
+ *
+ * The bit rows are then converted to compressed sparse row form, with the neighbours of each
+ * cluster in increasing order, and the blobs are found by breadth-first search.
+ * Clusters compatible with all others form singleton blobs.
+ */
+public class IncompatibilityGraph {
+	/** Number of words of cluster rows in one tile, about 32KB */
+	private static final int TILE_WORDS = 4096;
+
+	/** Number of tile pairs below which a range of them is processed in one task */
+	private static final int MIN_TASK_SIZE = 4;
+
+	private final int numClusters;
+	private final int rowWords; // words per cluster row
+	private final long[] rows; // cluster x taxon matrix
+
+	private final int tileSize;
+	private final int numTiles;
+	private long[] adjacency; // cluster x cluster matrix, until frozen
+	private final int adjacencyWords;
+
+	// adjacency
+	private int[] offsets;
+	private int[] neighbors;
+
+	// blobs
+	private int numBlobs;
+	private int[] blobOf;
+	private int[] blobOffsets;
+	private int[] blobMembers;
+
+	public IncompatibilityGraph(List<? extends BitSet> clusters) {
+		this(clusters, 1);
+	}
+
+	/**
+	 * Computes the incompatibility graph of the given clusters with up to parallelism threads
+	 */
+	public IncompatibilityGraph(List<? extends BitSet> clusters, int parallelism) {
+		numClusters = clusters.size();
+		int maxTaxon = -1;
+		for (BitSet c : clusters) {
+			maxTaxon = Math.max(maxTaxon, c.length() - 1);
+		}
+		rowWords = Math.max(PackedCluster.numWords(maxTaxon + 1), 1);
+		rows = new long[numClusters * rowWords];
+		for (int j = 0; j < numClusters; j++) {
+			BitSet c = clusters.get(j);
+			for (int t = c.nextSetBit(0); t != -1; t = c.nextSetBit(t + 1)) {
+				rows[j * rowWords + (t >>> 6)] |= 1L << t;
+			}
+		}
+
+		tileSize = Math.max(64, (TILE_WORDS / rowWords) & ~63);
+		numTiles = (numClusters + tileSize - 1) / tileSize;
+		adjacencyWords = PackedCluster.numWords(numClusters);
+		adjacency = new long[numClusters * adjacencyWords];
+		int numPairs = numTiles * (numTiles + 1) / 2;
+		if (parallelism <= 1) {
+			for (int p = 0; p < numPairs; p++) {
+				compareTiles(p);
+			}
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new TileTask(0, numPairs));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		freeze();
+		findBlobs();
+	}
+
+	/**
+	 * Compares the clusters of the tiles of pair p, pairs being numbered row by row
+	 * over the upper triangle of tiles
+	 */
+	private void compareTiles(int p) {
+		int a = 0;
+		while (p >= numTiles - a) {
+			p -= numTiles - a;
+			a++;
+		}
+		int b = a + p;
+		int aEnd = Math.min((a + 1) * tileSize, numClusters);
+		int bEnd = Math.min((b + 1) * tileSize, numClusters);
+		for (int i = a * tileSize; i < aEnd; i++) {
+			int iOffset = i * rowWords;
+			for (int j = (a == b ? i + 1 : b * tileSize); j < bEnd; j++) {
+				if (PackedCluster.incompatible(rows, iOffset, rows, j * rowWords, rowWords)) {
+					adjacency[i * adjacencyWords + (j >>> 6)] |= 1L << j;
+					adjacency[j * adjacencyWords + (i >>> 6)] |= 1L << i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares tile pairs start..end-1, splitting the range
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int start;
+		private final int end;
+
+		TileTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (end - start <= MIN_TASK_SIZE) {
+				for (int p = start; p < end; p++) {
+					compareTiles(p);
+				}
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new TileTask(start, mid), new TileTask(mid, end));
+			}
+		}
+	}
+
+	/**
+	 * Converts the bit rows to compressed sparse rows and releases them
+	 */
+	private void freeze() {
+		offsets = new int[numClusters + 1];
+		for (int i = 0; i < numClusters; i++) {
+			offsets[i + 1] = offsets[i] + PackedCluster.cardinality(adjacency, i * adjacencyWords, adjacencyWords);
+		}
+		neighbors = new int[offsets[numClusters]];
+		for (int i = 0; i < numClusters; i++) {
+			int k = offsets[i];
+			for (int w = 0; w < adjacencyWords; w++) {
+				for (long bits = adjacency[i * adjacencyWords + w]; bits != 0; bits &= bits - 1) {
+					neighbors[k++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+				}
+			}
+		}
+		adjacency = null;
+	}
+
+	private void findBlobs() {
+		blobOf = new int[numClusters];
+		Arrays.fill(blobOf, -1);
+		blobOffsets = new int[numClusters + 1];
+		blobMembers = new int[numClusters];
+		int size = 0;
+		for (int s = 0; s < numClusters; s++) {
+			if (blobOf[s] != -1) {
+				continue;
+			}
+			// breadth-first, using the members array as the queue
+			blobOffsets[numBlobs] = size;
+			blobOf[s] = numBlobs;
+			blobMembers[size++] = s;
+			for (int head = blobOffsets[numBlobs]; head < size; head++) {
+				int u = blobMembers[head];
+				for (int k = offsets[u]; k < offsets[u + 1]; k++) {
+					int v = neighbors[k];
+					if (blobOf[v] == -1) {
+						blobOf[v] = numBlobs;
+						blobMembers[size++] = v;
+					}
+				}
+			}
+			numBlobs++;
+		}
+		blobOffsets[numBlobs] = size;
+	}
+
+	public int getNumClusters() {
+		return numClusters;
+	}
+
+	/** Returns the number of incompatible pairs of clusters */
+	public int getNumEdges() {
+		return neighbors.length / 2;
+	}
+
+	public int getDegree(int i) {
+		return offsets[i + 1] - offsets[i];
+	}
+
+	/** Returns the k-th cluster incompatible with cluster i, in increasing order */
+	public int getNeighbor(int i, int k) {
+		return neighbors[offsets[i] + k];
+	}
+
+	public boolean isIncompatible(int i, int j) {
+		return Arrays.binarySearch(neighbors, offsets[i], offsets[i + 1], j) >= 0;
+	}
+
+	// ---- blobs ----
+
+	/** Returns the number of connected components, singletons included */
+	public int getNumBlobs() {
+		return numBlobs;
+	}
+
+	/** Returns the connected component of cluster i */
+	public int getBlob(int i) {
+		return blobOf[i];
+	}
+
+	public int getBlobSize(int b) {
+		return blobOffsets[b + 1] - blobOffsets[b];
+	}
+
+	/** Returns the k-th cluster of blob b, in breadth-first order from its first cluster */
+	public int getBlobMember(int b, int k) {
+		return blobMembers[blobOffsets[b] + k];
+	}
+
+	/** Returns the clusters of blob b */
+	public int[] getBlobMembers(int b) {
+		return Arrays.copyOfRange(blobMembers, blobOffsets[b], blobOffsets[b + 1]);
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * Enumerates the clone paths (lineages) of all samples of a tree in one traversal.
+ *
+ * For a sample s, the lineage of a node is the path of mutation-group nodes containing s
+ * from the start node down to it. A path is emitted at every sample leaf (or childless node)
+ * reached through nodes containing s, and for every node containing s below which nothing
+ * was emitted, exactly as PHYTree.getLineageClusters does for one sample.
+ *
+ * Instead of running that recursion once per sample with copied path lists, a single
+ * iterative DFS carries, per depth, the bitmask of samples for which the current path is
+ * alive and the bitmask of samples that emitted something below. The path is a shared stack
+ * of node ids, handed to the visitor without copying.
+ */
+public class LineageEngine {
+	/**
+	 * Receives clone paths; path[0..length-1] are node ids from the start node down and
+	 * must be copied if kept after the call
+	 */
+	public interface Visitor {
+		void visitClone(int sampleId, int[] path, int length);
+	}
+
+	private final PHYTree tree;
+	private final int numSamples;
+	private final int words; // words per sample mask
+	private final long[] masks; // sample mask of each node id; all samples for nodes without a profile
+	private final boolean[] isGroup; // node has a sample profile
+
+	// traversal state, indexed by depth
+	private int[] frameNode = new int[16];
+	private int[] frameChild = new int[16];
+	private long[] active;
+	private long[] emitted;
+	private int[] path = new int[16];
+
+	public LineageEngine(PHYTree tree, int numSamples) {
+		this.tree = tree;
+		this.numSamples = numSamples;
+		this.words = Math.max(PackedCluster.numWords(numSamples), 1);
+		int capacity = tree.getIdCapacity();
+		masks = new long[capacity * words];
+		isGroup = new boolean[capacity];
+		for (int v = 0; v < capacity; v++) {
+			PHYNode n = tree.getNode(v);
+			if (n == null) {
+				continue;
+			}
+			SampleProfile p = n.getSampleProfile();
+			if (p == null) {
+				Arrays.fill(masks, v * words, (v + 1) * words, -1L);
+				continue;
+			}
+			isGroup[v] = true;
+			for (int w = 0; w < Math.min(words, p.getNumWords()); w++) {
+				masks[v * words + w] = p.getWord(w);
+			}
+		}
+		active = new long[16 * words];
+		emitted = new long[16 * words];
+	}
+
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	/**
+	 * Emits the clone paths of all samples below start
+	 */
+	public void run(PHYNode start, Visitor visitor) {
+		long[] all = new long[words];
+		for (int s = 0; s < numSamples; s++) {
+			all[s >>> 6] |= 1L << s;
+		}
+		run(start, all, visitor);
+	}
+
+	/**
+	 * Emits the clone paths below start of the samples in the given mask
+	 */
+	public void run(PHYNode start, long[] samples, Visitor visitor) {
+		int pathLength = 0;
+		int top = 0;
+		int v = start.getNodeId();
+		ensureDepth(1);
+		for (int w = 0; w < words; w++) {
+			active[w] = (w < samples.length ? samples[w] : 0) & masks[v * words + w];
+		}
+		if (isEmpty(0)) {
+			return;
+		}
+		frameNode[0] = v;
+		frameChild[0] = tree.getFirstChildId(v);
+		clear(emitted, 0);
+		if (isGroup[v]) {
+			path[pathLength++] = v;
+		}
+
+		while (top >= 0) {
+			v = frameNode[top];
+			int c = frameChild[top];
+			if (c != -1) {
+				frameChild[top] = tree.getNextSiblingId(c);
+				// open c unless no sample stays alive through it
+				ensureDepth(top + 2);
+				int d = top + 1;
+				boolean alive = false;
+				for (int w = 0; w < words; w++) {
+					long a = active[top * words + w] & masks[c * words + w];
+					active[d * words + w] = a;
+					alive |= a != 0;
+				}
+				if (!alive) {
+					continue;
+				}
+				top = d;
+				frameNode[top] = c;
+				frameChild[top] = tree.getFirstChildId(c);
+				clear(emitted, top);
+				if (isGroup[c]) {
+					ensurePath(pathLength + 1);
+					path[pathLength++] = c;
+				}
+				continue;
+			}
+
+			// v is complete
+			if (tree.getFirstChildId(v) == -1) {
+				// leaf: the path ends here for every live sample
+				emit(active, top, pathLength, visitor);
+				System.arraycopy(active, top * words, emitted, top * words, words);
+			}
+			if (isGroup[v]) {
+				pathLength--;
+			}
+			if (top > 0) {
+				int p = top - 1;
+				if (isGroup[v]) {
+					// samples containing v with nothing emitted below v end at v
+					boolean any = false;
+					for (int w = 0; w < words; w++) {
+						long rest = active[top * words + w] & ~emitted[top * words + w];
+						active[top * words + w] = rest;
+						any |= rest != 0;
+					}
+					if (any) {
+						path[pathLength] = v;
+						emit(active, top, pathLength + 1, visitor);
+						for (int w = 0; w < words; w++) {
+							emitted[p * words + w] |= active[top * words + w];
+						}
+					}
+				}
+				for (int w = 0; w < words; w++) {
+					emitted[p * words + w] |= emitted[top * words + w];
+				}
+			}
+			top--;
+		}
+	}
+
+	private void emit(long[] samples, int depth, int length, Visitor visitor) {
+		for (int w = 0; w < words; w++) {
+			for (long bits = samples[depth * words + w]; bits != 0; bits &= bits - 1) {
+				int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+				if (s < numSamples) {
+					visitor.visitClone(s, path, length);
+				}
+			}
+		}
+	}
+
+	private boolean isEmpty(int depth) {
+		for (int w = 0; w < words; w++) {
+			if (active[depth * words + w] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void clear(long[] a, int depth) {
+		Arrays.fill(a, depth * words, (depth + 1) * words, 0);
+	}
+
+	private void ensureDepth(int depth) {
+		if (frameNode.length < depth) {
+			int capacity = Math.max(depth, 2 * frameNode.length);
+			frameNode = Arrays.copyOf(frameNode, capacity);
+			frameChild = Arrays.copyOf(frameChild, capacity);
+			active = Arrays.copyOf(active, capacity * words);
+			emitted = Arrays.copyOf(emitted, capacity * words);
+		}
+	}
+
+	private void ensurePath(int length) {
+		if (path.length < length) {
+			path = Arrays.copyOf(path, Math.max(length, 2 * path.length));
+		}
+	}
+
+	/**
+	 * Collects the clone paths of all samples below start into compact arrays
+	 */
+	public Clones collect(PHYNode start) {
+		final Clones clones = new Clones(tree, numSamples);
+		run(start, new Visitor() {
+			public void visitClone(int sampleId, int[] path, int length) {
+				clones.add(sampleId, path, length);
+			}
+		});
+		return clones;
+	}
+
+	/**
+	 * Clone paths of all samples, stored as node ids in one int array.
+	 * Clone k belongs to sample getSample(k) and spans nodes[getStart(k)..getStart(k+1)-1].
+	 */
+	public static class Clones {
+		private final PHYTree tree;
+		private final int numSamples;
+		private int numClones;
+		private int[] samples = new int[16];
+		private int[] starts = new int[17];
+		private int[] nodes = new int[64];
+
+		Clones(PHYTree tree, int numSamples) {
+			this.tree = tree;
+			this.numSamples = numSamples;
+		}
+
+		void add(int sampleId, int[] path, int length) {
+			if (numClones + 1 == samples.length) {
+				samples = Arrays.copyOf(samples, 2 * samples.length);
+				starts = Arrays.copyOf(starts, samples.length + 1);
+			}
+			int end = starts[numClones];
+			if (end + length > nodes.length) {
+				nodes = Arrays.copyOf(nodes, Math.max(end + length, 2 * nodes.length));
+			}
+			System.arraycopy(path, 0, nodes, end, length);
+			samples[numClones] = sampleId;
+			starts[++numClones] = end + length;
+		}
+
+		public int getNumClones() {
+			return numClones;
+		}
+
+		public int getSample(int k) {
+			return samples[k];
+		}
+
+		public int getStart(int k) {
+			return starts[k];
+		}
+
+		public int getLength(int k) {
+			return starts[k + 1] - starts[k];
+		}
+
+		/** Returns the node ids of all clones, to be read with getStart and getLength */
+		public int[] getNodeIds() {
+			return nodes;
+		}
+
+		/**
+		 * Returns the clones of one sample as lists of nodes, as PHYTree.getLineageClusters would
+		 */
+		public ArrayList<ArrayList<PHYNode>> getClones(int sampleId) {
+			ArrayList<ArrayList<PHYNode>> result = new ArrayList<ArrayList<PHYNode>>();
+			for (int k = 0; k < numClones; k++) {
+				if (samples[k] != sampleId) {
+					continue;
+				}
+				ArrayList<PHYNode> clone = new ArrayList<PHYNode>(getLength(k));
+				for (int i = starts[k]; i < starts[k + 1]; i++) {
+					clone.add(tree.getNode(nodes[i]));
+				}
+				result.add(clone);
+			}
+			return result;
+		}
+
+		public int getNumSamples() {
+			return numSamples;
+		}
+	}
+}
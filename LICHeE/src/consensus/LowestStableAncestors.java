@@ -0,0 +1,158 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.Arrays;
+
+
+/**
+ * Lowest stable ancestors (LSA) of the reticulation nodes of a frozen cluster network.
+ *
+ * The LSA of a reticulation r is the lowest node that lies on every path from the root to r,
+ * i.e. the immediate dominator of r. Because the network is acyclic, all dominators can be
+ * found in a single pass over the nodes in topological order: the immediate dominator of v
+ * is the nearest common ancestor, in the dominator tree built so far, of all parents of v.
+ * Everything is kept in int arrays indexed by node id, so there is no recursion and no hashing,
+ * and the result does not depend on anything but the graph.
+ */
+public class LowestStableAncestors {
+	private final CNGraph graph;
+	private final int[] order; // nodes in topological order
+	private final int[] position; // position of each node in order, or -1 if unreachable
+	private final int[] dominator; // immediate dominator of each node, -1 for the root
+	private final int[] depth; // depth in the dominator tree
+
+	/**
+	 * Computes the LSA of every reticulation reachable from root
+	 */
+	public LowestStableAncestors(CNGraph graph, int root) {
+		this.graph = graph;
+		int n = graph.numNodes;
+		order = topologicalOrder(graph, root);
+		position = new int[n];
+		Arrays.fill(position, -1);
+		for (int k = 0; k < order.length; k++) {
+			position[order[k]] = k;
+		}
+
+		dominator = new int[n];
+		depth = new int[n];
+		Arrays.fill(dominator, -1);
+		for (int k = 1; k < order.length; k++) {
+			int v = order[k];
+			int d = -1;
+			for (int p = graph.inOffsets[v]; p < graph.inOffsets[v + 1]; p++) {
+				int u = graph.inSources[p];
+				if (position[u] == -1) {
+					continue;
+				}
+				d = (d == -1 ? u : intersect(d, u));
+			}
+			dominator[v] = d;
+			depth[v] = depth[d] + 1;
+		}
+	}
+
+	/**
+	 * Nearest common ancestor of a and b in the dominator tree
+	 */
+	private int intersect(int a, int b) {
+		while (depth[a] > depth[b]) {
+			a = dominator[a];
+		}
+		while (depth[b] > depth[a]) {
+			b = dominator[b];
+		}
+		while (a != b) {
+			a = dominator[a];
+			b = dominator[b];
+		}
+		return a;
+	}
+
+	/**
+	 * Returns the nodes reachable from root in topological order (Kahn's algorithm,
+	 * ties broken by node id order of discovery)
+	 */
+	static int[] topologicalOrder(CNGraph graph, int root) {
+		int n = graph.numNodes;
+		// restrict in-degrees to edges from reachable nodes
+		boolean[] reachable = new boolean[n];
+		int[] queue = new int[n];
+		int head = 0, tail = 0;
+		queue[tail++] = root;
+		reachable[root] = true;
+		while (head < tail) {
+			int u = queue[head++];
+			for (int k = graph.outOffsets[u]; k < graph.outOffsets[u + 1]; k++) {
+				int w = graph.outTargets[k];
+				if (!reachable[w]) {
+					reachable[w] = true;
+					queue[tail++] = w;
+				}
+			}
+		}
+		int[] remaining = new int[n];
+		for (int e = 0; e < graph.numEdges; e++) {
+			if (reachable[graph.edgeSource[e]]) {
+				remaining[graph.edgeTarget[e]]++;
+			}
+		}
+
+		int[] order = new int[tail];
+		head = 0;
+		tail = 0;
+		order[tail++] = root;
+		while (head < tail) {
+			int u = order[head++];
+			for (int k = graph.outOffsets[u]; k < graph.outOffsets[u + 1]; k++) {
+				int w = graph.outTargets[k];
+				if (--remaining[w] == 0) {
+					order[tail++] = w;
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Returns the LSA of reticulation v, or -1 if v is not a reachable reticulation
+	 */
+	public int getLSA(int v) {
+		if (position[v] == -1 || graph.getInDegree(v) < 2) {
+			return -1;
+		}
+		return dominator[v];
+	}
+
+	/**
+	 * Returns the immediate dominator of any reachable node, -1 for the root
+	 */
+	public int getDominator(int v) {
+		return dominator[v];
+	}
+
+	/**
+	 * Returns the depth of a reachable node in the dominator tree
+	 */
+	public int getDepth(int v) {
+		return depth[v];
+	}
+
+	/**
+	 * Returns the nodes reachable from the root in topological order
+	 */
+	public int[] getTopologicalOrder() {
+		return order;
+	}
+
+	/**
+	 * Returns the position of v in the topological order, or -1 if unreachable
+	 */
+	public int getPosition(int v) {
+		return position[v];
+	}
+}
@@ -6,7 +6,7 @@
 package consensus;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -22,7 +22,11 @@ public class PHYNode implements Serializable, Comparable<PHYNode> {
 	private int nodeId;
 
 	/** Sub-population cluster that the node represents */
-	private ArrayList<SNVEntry> snvs;		
+	private List<SNVEntry> snvs;
+	
+	/** SNV table and rows of the cluster, if the node was built from a table */
+	private SNVTable snvTable;
+	private int[] snvRows;		
 	
 	/** The node's sample presence profile */
 	protected SampleProfile sampleProfile;
@@ -41,13 +45,22 @@ public class PHYNode implements Serializable, Comparable<PHYNode> {
 	 * @param g - SNV group the node belongs to
 	 * @param nodeClusterId
 	 */
-	public PHYNode(SampleProfile p, ArrayList<SNVEntry> s, int uniqueId) {
+	public PHYNode(SampleProfile p, List<SNVEntry> s, int uniqueId) {
 		sampleProfile = p;
 		snvs = s;
 		isLeaf = false;
 		nodeId = uniqueId;
 	}
 	
+	/**
+	 * Internal node constructor for a cluster of rows of an SNV table
+	 */
+	public PHYNode(SampleProfile p, SNVTable table, int[] rows, int uniqueId) {
+		this(p, table.getEntries(rows), uniqueId);
+		snvTable = table;
+		snvRows = rows;
+	}
+	
 	/**
 	 * Leaf node constructor - represents each tumor sample
 	 * @param sampleId - ID of the represented tumor sample
@@ -105,54 +118,65 @@ public class PHYNode implements Serializable, Comparable<PHYNode> {
 	 * Returns the SNV entries in the cluster
 	 * corresponding to this node
 	 */
-	public ArrayList<SNVEntry> getSNVs() {
+	public List<SNVEntry> getSNVs() {
 		return snvs;
 	}
 	
+	/**
+	 * Returns the SNV table of the cluster, or null if the node was not built from a table
+	 */
+	public SNVTable getSNVTable() {
+		return snvTable;
+	}
+	
+	/**
+	 * Returns the rows of the cluster in its SNV table, or null
+	 */
+	public int[] getSNVRows() {
+		return snvRows;
+	}
+	
 	public String toString() {
-		String node = "Node " + nodeId + ": ";
+		StringBuilder node = new StringBuilder("Node ").append(nodeId).append(": ");
 		if(!isLeaf && !isRoot) {
-			node += "group tag = " + sampleProfile.getTag() + ", ";
-			node += "[";
+			node.append("group tag = ").append(sampleProfile.getTag()).append(", ");
+			node.append('[');
 			for (int i = 0; i < snvs.size(); i++) {
-				node += snvs.get(i).toString() + ", ";
+				node.append(snvs.get(i)).append(", ");
 			}
-			node += "]";
+			node.append(']');
 		} else if(isLeaf) {
-			node += "leaf sample id = " + leafSampleId;
+			node.append("leaf sample id = ").append(leafSampleId);
 		} 
-		return node;
+		return node.toString();
 	}
 	
 	public String getLabel() {
-		String node = "";
 		if(!isLeaf && !isRoot) {
 			//node += nodeId + ": \n";
-			node += sampleProfile.getTag() + "\n";
-			node += "("+snvs.size()+")";
+			return sampleProfile.getTag() + "\n(" + snvs.size() + ")";
 		} else if(isLeaf) {
-			node += "sample " + leafSampleId;
+			return "sample " + leafSampleId;
 		} else {
-			node += "GL";
+			return "GL";
 		}
-		return node;
 	}
 	
 	public String getLongLabel() {
-		String node = "";
+		StringBuilder node = new StringBuilder();
 		if(!isLeaf && !isRoot) {
-			node += "Group: " + sampleProfile.getTag() + "\n";
-			node += "[";
+			node.append("Group: ").append(sampleProfile.getTag()).append('\n');
+			node.append('[');
 			for (int i = 0; i < snvs.size(); i++) {
-				node += snvs.get(i) + ", ";
+				node.append(snvs.get(i)).append(", ");
 			}
-			node += "]";
+			node.append(']');
 		} else if(isLeaf) {
-			node += "sample " + leafSampleId;
+			node.append("sample ").append(leafSampleId);
 		} else {
-			node += "GL";
+			node.append("GL");
 		}
-		return node;
+		return node.toString();
 	}
 	
 	public boolean equals(Object o) {
@@ -7,7 +7,7 @@ package consensus;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 
 /**
@@ -18,78 +18,300 @@ import java.util.HashMap;
 public class PHYTree implements Serializable {
 	private static final long serialVersionUID = 1L;
 	
-	public ArrayList<PHYNode> treeNodes;
-	public HashMap<PHYNode, ArrayList<PHYNode>> treeEdges;
+	/*
+	 * All nodes and edges are stored in arrays indexed by node id (PHYNode.getNodeId()).
+	 * Nodes of the tree form a doubly linked list in insertion order (the root first);
+	 * each node has a parent and a doubly linked list of children in insertion order.
+	 * Nodes only referenced by edges are known (nodeById) but not part of the tree.
+	 */
+	private PHYNode[] nodeById = new PHYNode[0];
+	private boolean[] inTree = new boolean[0];
+	private int[] prevNode = new int[0];
+	private int[] nextNode = new int[0];
+	private int firstNode = -1;
+	private int lastNode = -1;
+	private int numNodes;
+	
+	private int[] parent = new int[0];
+	private int[] firstChild = new int[0];
+	private int[] lastChild = new int[0];
+	private int[] prevSibling = new int[0];
+	private int[] nextSibling = new int[0];
+	
 	protected double weight = 1;
 	
+	/** Ancestry index, built on demand and dropped whenever the tree changes */
+	private transient TreeIntervalIndex intervalIndex;
+	
 	public PHYTree() {
-		treeNodes = new ArrayList<PHYNode>();
-		treeEdges = new HashMap<PHYNode, ArrayList<PHYNode>>();
+	}
+	
+	/**
+	 * Grows the arrays to hold node ids up to id and registers n
+	 */
+	private int register(PHYNode n) {
+		int id = n.getNodeId();
+		if(id >= nodeById.length) {
+			int capacity = Math.max(id + 1, 2 * nodeById.length);
+			int old = nodeById.length;
+			nodeById = Arrays.copyOf(nodeById, capacity);
+			inTree = Arrays.copyOf(inTree, capacity);
+			prevNode = grow(prevNode, old, capacity);
+			nextNode = grow(nextNode, old, capacity);
+			parent = grow(parent, old, capacity);
+			firstChild = grow(firstChild, old, capacity);
+			lastChild = grow(lastChild, old, capacity);
+			prevSibling = grow(prevSibling, old, capacity);
+			nextSibling = grow(nextSibling, old, capacity);
+		}
+		if(nodeById[id] == null) {
+			nodeById[id] = n;
+		}
+		return id;
+	}
+	
+	private static int[] grow(int[] a, int old, int capacity) {
+		a = Arrays.copyOf(a, capacity);
+		Arrays.fill(a, old, capacity, -1);
+		return a;
+	}
+	
+	private boolean isKnown(PHYNode n) {
+		int id = n.getNodeId();
+		return id >= 0 && id < nodeById.length && nodeById[id] != null;
 	}
 	
 	public void addNode(PHYNode n) {
-		if(!treeNodes.contains(n)) {
-			treeNodes.add(n);
+		int id = register(n);
+		if(!inTree[id]) {
+			inTree[id] = true;
+			prevNode[id] = lastNode;
+			nextNode[id] = -1;
+			if(lastNode == -1) {
+				firstNode = id;
+			} else {
+				nextNode[lastNode] = id;
+			}
+			lastNode = id;
+			numNodes++;
+			intervalIndex = null;
 		}
 	}
 	
+	private void unlinkNode(int id) {
+		if(!inTree[id]) {
+			return;
+		}
+		inTree[id] = false;
+		if(prevNode[id] == -1) {
+			firstNode = nextNode[id];
+		} else {
+			nextNode[prevNode[id]] = nextNode[id];
+		}
+		if(nextNode[id] == -1) {
+			lastNode = prevNode[id];
+		} else {
+			prevNode[nextNode[id]] = prevNode[id];
+		}
+		numNodes--;
+	}
+	
+	/**
+	 * Adds an edge from a node to its child.
+	 * @throws IllegalArgumentException if to already has a different parent
+	 */
 	public void addEdge(PHYNode from, PHYNode to) {
-		ArrayList<PHYNode> nbrs = treeEdges.get(from);
-		if(nbrs == null) {
-			treeEdges.put(from, new ArrayList<PHYNode>());
+		int u = register(from);
+		int v = register(to);
+		if(parent[v] == u) {
+			return;
 		}
-		if(!treeEdges.get(from).contains(to)) {
-			treeEdges.get(from).add(to);
+		if(parent[v] != -1) {
+			throw new IllegalArgumentException("Node " + v + " already has parent " + parent[v]);
+		}
+		intervalIndex = null;
+		parent[v] = u;
+		prevSibling[v] = lastChild[u];
+		nextSibling[v] = -1;
+		if(lastChild[u] == -1) {
+			firstChild[u] = v;
+		} else {
+			nextSibling[lastChild[u]] = v;
 		}
+		lastChild[u] = v;
 	}
 	
+	/**
+	 * Removes the edge, and removes to from the tree as it is no longer connected
+	 * (its own children keep their edges)
+	 */
 	public void removeEdge(PHYNode from, PHYNode to) {
-		ArrayList<PHYNode> nbrs = treeEdges.get(from);
-		if(nbrs != null) {
-			for(PHYNode n : nbrs) {
-				if(n.equals(to)) {
-					nbrs.remove(n);
-					break;
-				}
+		if(!isKnown(to)) {
+			return;
+		}
+		intervalIndex = null;
+		int v = to.getNodeId();
+		int u = parent[v];
+		if(isKnown(from) && u == from.getNodeId()) {
+			if(prevSibling[v] == -1) {
+				firstChild[u] = nextSibling[v];
+			} else {
+				nextSibling[prevSibling[v]] = nextSibling[v];
+			}
+			if(nextSibling[v] == -1) {
+				lastChild[u] = prevSibling[v];
+			} else {
+				prevSibling[nextSibling[v]] = prevSibling[v];
 			}
+			parent[v] = -1;
+			prevSibling[v] = -1;
+			nextSibling[v] = -1;
 		}
 		
 		// remove the node if no edge points to it
-		boolean connected = false;
-		for(PHYNode n : treeEdges.keySet()) {
-			for(PHYNode n2 : treeEdges.get(n)) {
-				if(to.equals(n2)) {
-					connected = true;
-					break;
-				}
-			}
+		if(parent[v] == -1) {
+			unlinkNode(v);
 		}
-		if(!connected) {
-			treeNodes.remove(to);
-		}			
 	}
 	
 	public boolean containsNode(PHYNode v) {
-		for(PHYNode n : treeNodes) {
-			if(n.equals(v)) {
-				return true;
+		return isKnown(v) && inTree[v.getNodeId()];
+	}
+	
+	public boolean containsEdge(PHYNode from, PHYNode to) {
+		return isKnown(from) && isKnown(to) && parent[to.getNodeId()] == from.getNodeId();
+	}
+	
+	/**
+	 * Returns the first node added to the tree, or null if the tree is empty
+	 */
+	public PHYNode getRoot() {
+		return firstNode == -1 ? null : nodeById[firstNode];
+	}
+	
+	public int getNumNodes() {
+		return numNodes;
+	}
+	
+	/**
+	 * Returns the nodes of the tree in the order they were added
+	 */
+	public ArrayList<PHYNode> getNodes() {
+		ArrayList<PHYNode> nodes = new ArrayList<PHYNode>(numNodes);
+		for(int id = firstNode; id != -1; id = nextNode[id]) {
+			nodes.add(nodeById[id]);
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Returns the children of v in the order they were added
+	 */
+	public ArrayList<PHYNode> getChildren(PHYNode v) {
+		ArrayList<PHYNode> children = new ArrayList<PHYNode>();
+		if(isKnown(v)) {
+			for(int id = firstChild[v.getNodeId()]; id != -1; id = nextSibling[id]) {
+				children.add(nodeById[id]);
 			}
 		}
-		return false;
+		return children;
 	}
 	
-	public boolean containsEdge(PHYNode from, PHYNode to) {
-		if(treeEdges.get(from) == null) return false;
-		for(PHYNode n : treeEdges.get(from)) {
-			if(n.equals(to)) {
-				return true;
+	/**
+	 * Returns the parent of v, or null if it has none
+	 */
+	public PHYNode getParent(PHYNode v) {
+		if(!isKnown(v) || parent[v.getNodeId()] == -1) {
+			return null;
+		}
+		return nodeById[parent[v.getNodeId()]];
+	}
+	
+	/*
+	 * Int-level access for traversals that should not allocate; -1 stands for no node.
+	 */
+	
+	/** Returns one more than the largest node id known to the tree */
+	public int getIdCapacity() {
+		return nodeById.length;
+	}
+	
+	/** Returns the node with the given id, or null if it is not known to the tree */
+	public PHYNode getNode(int id) {
+		return id >= 0 && id < nodeById.length ? nodeById[id] : null;
+	}
+	
+	public int getFirstNodeId() {
+		return firstNode;
+	}
+	
+	/**
+	 * Returns the id of the only parentless node, from which all nodes are reached, or -1 if the tree is empty
+	 * @throws IllegalArgumentException if the nodes form a forest or contain a cycle
+	 */
+	public int getRootId() {
+		int root = -1;
+		for(int id = firstNode; id != -1; id = nextNode[id]) {
+			if(parent[id] != -1) {
+				continue;
 			}
+			if(root != -1) {
+				throw new IllegalArgumentException("Tree has more than one root: nodes " + root + " and " + id);
+			}
+			root = id;
 		}
-		return false;
+		if(firstNode == -1) {
+			return -1;
+		}
+		if(root == -1) {
+			throw new IllegalArgumentException("Tree has no root");
+		}
+		// pre-order walk along the child and parent links, counting the nodes reached
+		int reached = 1;
+		int v = root;
+		while(true) {
+			if(firstChild[v] != -1) {
+				v = firstChild[v];
+			} else {
+				while(v != root && nextSibling[v] == -1) {
+					v = parent[v];
+				}
+				if(v == root) {
+					break;
+				}
+				v = nextSibling[v];
+			}
+			reached++;
+		}
+		if(reached != numNodes) {
+			throw new IllegalArgumentException("Tree has a cycle: " + (numNodes - reached) + " nodes are not reached from root " + root);
+		}
+		return root;
 	}
 	
-	public PHYNode getRoot() {
-		return treeNodes.get(0);
+	public int getNextNodeId(int id) {
+		return nextNode[id];
+	}
+	
+	public int getParentId(int id) {
+		return parent[id];
+	}
+	
+	public int getFirstChildId(int id) {
+		return firstChild[id];
+	}
+	
+	public int getNextSiblingId(int id) {
+		return nextSibling[id];
+	}
+	
+	/** Returns the weight of this tree in its ensemble */
+	public double getWeight() {
+		return weight;
+	}
+	
+	public void setWeight(double weight) {
+		this.weight = weight;
 	}
 	
 	/** 
@@ -97,60 +319,103 @@ public class PHYTree implements Serializable {
 	 */
 	public PHYTree clone() {
 		PHYTree copy = new PHYTree();
-		copy.treeNodes.addAll(this.treeNodes);
-		for(PHYNode n : this.treeEdges.keySet()) {
-			ArrayList<PHYNode> nbrs = new ArrayList<PHYNode>();
-			nbrs.addAll(this.treeEdges.get(n));
-			copy.treeEdges.put(n, nbrs);
-		}
+		copy.nodeById = nodeById.clone();
+		copy.inTree = inTree.clone();
+		copy.prevNode = prevNode.clone();
+		copy.nextNode = nextNode.clone();
+		copy.firstNode = firstNode;
+		copy.lastNode = lastNode;
+		copy.numNodes = numNodes;
+		copy.parent = parent.clone();
+		copy.firstChild = firstChild.clone();
+		copy.lastChild = lastChild.clone();
+		copy.prevSibling = prevSibling.clone();
+		copy.nextSibling = nextSibling.clone();
+		copy.weight = weight;
 		return copy;
 	}
 	
+	/**
+	 * Returns the interval index of the tree, building it if the tree changed since the last query
+	 */
+	public TreeIntervalIndex getIntervalIndex() {
+		if(intervalIndex == null) {
+			intervalIndex = new TreeIntervalIndex(this);
+		}
+		return intervalIndex;
+	}
+	
 	/**
 	 * Returns true if w is a descendant of v in this tree
 	 */
 	public boolean isDescendent(PHYNode v, PHYNode w) {
-		ArrayList<PHYNode> nbrs = treeEdges.get(v);
-		if(nbrs == null) {
+		TreeIntervalIndex index = getIntervalIndex();
+		if(index.isValid()) {
+			return index.isDescendent(v, w);
+		}
+		
+		// the edges contain a cycle, walk up from w at most once around it
+		if(!isKnown(v) || !isKnown(w)) {
 			return false;
 		}
-		ArrayList<PHYNode> q = new ArrayList<PHYNode>(nbrs);
-		while(q.size() > 0) {
-			PHYNode n = q.remove(0);
-			if(n.equals(w)) {
+		int target = v.getNodeId();
+		int id = parent[w.getNodeId()];
+		for(int steps = 0; id != -1 && steps < nodeById.length; steps++) {
+			if(id == target) {
 				return true;
 			}
-			if(treeEdges.get(n) != null) {
-				q.addAll(treeEdges.get(n));
-			}
+			id = parent[id];
 		}
 		return false;
 	}
 	
+	/**
+	 * Returns the lowest common ancestor of v and w, or null if they are not in the same tree
+	 * @requires the edges form a tree
+	 */
+	public PHYNode getLCA(PHYNode v, PHYNode w) {
+		return getCheckedIndex().getLCA(v, w);
+	}
+	
+	/**
+	 * Returns the number of edges between v and the root, or -1 if v is not in the tree
+	 * @requires the edges form a tree
+	 */
+	public int getDepth(PHYNode v) {
+		return getCheckedIndex().getDepth(v);
+	}
+	
+	private TreeIntervalIndex getCheckedIndex() {
+		TreeIntervalIndex index = getIntervalIndex();
+		if(!index.isValid()) {
+			throw new IllegalStateException("Tree edges contain a cycle");
+		}
+		return index;
+	}
+	
 	public String toString() {
-		String graph = "";
-		for(PHYNode n1 : treeEdges.keySet()) {
-			ArrayList<PHYNode> nbrs = treeEdges.get(n1);
-			for(PHYNode n2 : nbrs) {
-				graph += n1.getNodeId() + " -> " + n2.getNodeId() + "\n";
+		StringBuilder graph = new StringBuilder();
+		for(int u = 0; u < nodeById.length; u++) {
+			for(int v = (nodeById[u] == null ? -1 : firstChild[u]); v != -1; v = nextSibling[v]) {
+				graph.append(u).append(" -> ").append(v).append('\n');
 			}
 		}
-		return graph;
+		return graph.toString();
 	}
 	
 	public String getNodeSNVString() {
-		String s = "";
-		for(PHYNode n : treeNodes) {
+		StringBuilder s = new StringBuilder();
+		for(int id = firstNode; id != -1; id = nextNode[id]) {
+			PHYNode n = nodeById[id];
 			if(n.getSampleProfile() == null) continue;
-    		ArrayList<SNVEntry> snvs = n.getSNVs();
-    		s += n.getNodeId();
-    		s += "\t" + n.getSampleProfile().getTag();
-    		for(SNVEntry snv : snvs) {
-    			s += "\t" + snv.getDescription();
+    		s.append(n.getNodeId());
+    		s.append('\t').append(n.getSampleProfile().getTag());
+    		for(SNVEntry snv : n.getSNVs()) {
+    			s.append('\t').append(snv.getDescription());
         	}
-    		s += "\n";
+    		s.append('\n');
 		}
-		return s;
+		return s.toString();
 	}
 	
 	/**
@@ -164,7 +429,7 @@ public class PHYTree implements Serializable {
 		
 		// traverse the tree starting from the root in DFS order
 		String indent = "";
-		for(PHYNode n : treeEdges.get(treeNodes.get(0))) {
+		for(PHYNode n : getChildren(getRoot())) {
 			getLineageHelper(lineage, indent, n, sampleId);
 		}
 		return lineage.toString();
@@ -177,11 +442,21 @@ public class PHYTree implements Serializable {
 		if(n.getSampleProfile().containsSample(sampleId)) {
 			lineage.append(indent + n.toString() + "\n");
 		}
-		if(treeEdges.get(n) != null) {
-			for(PHYNode nbr : treeEdges.get(n)) {
-				getLineageHelper(lineage, indent, nbr, sampleId);
-			}
+		for(PHYNode nbr : getChildren(n)) {
+			getLineageHelper(lineage, indent, nbr, sampleId);
+		}
+	}
+	
+	/**
+	 * Returns the clone paths of all samples below the root, found in one traversal
+	 * (see LineageEngine)
+	 */
+	public LineageEngine.Clones getLineageClusters(int numSamples) {
+		PHYNode root = getRoot();
+		if(root == null) {
+			return new LineageEngine.Clones(this, numSamples);
 		}
+		return new LineageEngine(this, numSamples).collect(root);
 	}
 	
 	public void getLineageClusters(ArrayList<PHYNode> path, ArrayList<ArrayList<PHYNode>> clones, PHYNode n, int sampleId) {
@@ -190,8 +465,9 @@ public class PHYTree implements Serializable {
 		} else if(n.getSampleProfile() != null && !n.getSampleProfile().containsSample(sampleId)) {
 			return;
 		}
-		if(treeEdges.get(n) != null) {
-			for(PHYNode nbr : treeEdges.get(n)) {
+		ArrayList<PHYNode> children = getChildren(n);
+		if(!children.isEmpty()) {
+			for(PHYNode nbr : children) {
 				int size1 = clones.size();
 				ArrayList<PHYNode> clone = new ArrayList<PHYNode>(path);
 				getLineageClusters(new ArrayList<PHYNode>(path), clones, nbr, sampleId);
@@ -0,0 +1,265 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.BitSet;
+
+/**
+ * A weighted cluster stored as a fixed number of 64-bit words.
+ * Unlike Cluster (a BitSet), all set tests operate in place on the words and never allocate,
+ * which makes this the representation of choice for pairwise cluster comparisons.
+ * The static word-level helpers also accept an offset so that they can be applied to rows
+ * of a flat long[] matrix of clusters.
+ */
+public class PackedCluster {
+	private final long[] words;
+	private final int numTaxa;
+	private int id;
+	private double weight = 1;
+	private double confidence = 1;
+
+	/**
+	 * Creates an empty cluster able to hold taxa 0..numTaxa-1
+	 */
+	public PackedCluster(int numTaxa) {
+		this.numTaxa = numTaxa;
+		this.words = new long[numWords(numTaxa)];
+	}
+
+	/**
+	 * Creates a packed copy of the given set, truncated to taxa 0..numTaxa-1
+	 */
+	public PackedCluster(BitSet A, int numTaxa) {
+		this(numTaxa);
+		for (int t = A.nextSetBit(0); t != -1 && t < numTaxa; t = A.nextSetBit(t + 1))
+			words[t >>> 6] |= 1L << t;
+	}
+
+	/**
+	 * Creates a packed copy of a weighted cluster, keeping its id, weight and confidence
+	 */
+	public PackedCluster(Cluster A, int numTaxa) {
+		this((BitSet) A, numTaxa);
+		this.id = A.getId();
+		this.weight = A.getWeight();
+		this.confidence = A.getConfidence();
+	}
+
+	/**
+	 * Returns the number of words needed to store numTaxa bits
+	 */
+	public static int numWords(int numTaxa) {
+		return (numTaxa + 63) >>> 6;
+	}
+
+	public long[] getWords() {
+		return words;
+	}
+
+	public int getNumTaxa() {
+		return numTaxa;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public double getWeight() {
+		return weight;
+	}
+
+	public void setWeight(double weight) {
+		this.weight = weight;
+	}
+
+	public double getConfidence() {
+		return confidence;
+	}
+
+	public void setConfidence(double confidence) {
+		this.confidence = confidence;
+	}
+
+	public boolean get(int t) {
+		return (words[t >>> 6] & (1L << t)) != 0;
+	}
+
+	public void set(int t) {
+		words[t >>> 6] |= 1L << t;
+	}
+
+	public void clear(int t) {
+		words[t >>> 6] &= ~(1L << t);
+	}
+
+	public int cardinality() {
+		return cardinality(words, 0, words.length);
+	}
+
+	/**
+	 * Converts back into a (BitSet based) weighted cluster
+	 */
+	public Cluster toCluster() {
+		return new Cluster(toBitSet(), weight, confidence, id);
+	}
+
+	public BitSet toBitSet() {
+		return BitSet.valueOf(words);
+	}
+
+	/**
+	 * determines whether set A contains set B
+	 *
+	 * @param A
+	 * @param B
+	 * @return true, if A contains B
+	 */
+	public static boolean contains(PackedCluster A, PackedCluster B) {
+		return contains(A.words, 0, B.words, 0, Math.min(A.words.length, B.words.length))
+				&& isEmpty(B.words, A.words.length, B.words.length - A.words.length);
+	}
+
+	/**
+	 * do two given clusters share a taxon?
+	 *
+	 * @param A
+	 * @param B
+	 * @return true, if A and B intersect
+	 */
+	public static boolean intersects(PackedCluster A, PackedCluster B) {
+		return intersects(A.words, 0, B.words, 0, Math.min(A.words.length, B.words.length));
+	}
+
+	/**
+	 * are two given clusters incompatible, i.e. do they overlap without either containing the other?
+	 *
+	 * @param A
+	 * @param B
+	 * @return true, if A \ B, B \ A and A & B are all non-empty
+	 */
+	public static boolean incompatible(PackedCluster A, PackedCluster B) {
+		if (A.words.length != B.words.length) {
+			// a word present in only one of the two sets can only contribute to one difference
+			return intersects(A, B) && !contains(A, B) && !contains(B, A);
+		}
+		return incompatible(A.words, 0, B.words, 0, A.words.length);
+	}
+
+	/**
+	 * are two clusters equal?
+	 *
+	 * @param A
+	 * @param B
+	 * @return true, if equal
+	 */
+	public static boolean equals(PackedCluster A, PackedCluster B) {
+		return contains(A, B) && contains(B, A);
+	}
+
+	/**
+	 * are two clusters equal on all taxa upto max taxon id?
+	 *
+	 * @param A
+	 * @param B
+	 * @param maxTaxonId
+	 * @return true, if equal upto maxTaxonId
+	 */
+	public static boolean equals(PackedCluster A, PackedCluster B, int maxTaxonId) {
+		if (maxTaxonId < 0)
+			return true;
+		int last = maxTaxonId >>> 6;
+		for (int i = 0; i <= last; i++) {
+			long a = i < A.words.length ? A.words[i] : 0;
+			long b = i < B.words.length ? B.words[i] : 0;
+			long diff = a ^ b;
+			if (i == last)
+				diff &= -1L >>> (63 - (maxTaxonId & 63));
+			if (diff != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Word-level containment test on two rows of numWords words: does a contain b?
+	 */
+	public static boolean contains(long[] a, int aOffset, long[] b, int bOffset, int numWords) {
+		for (int i = 0; i < numWords; i++)
+			if ((b[bOffset + i] & ~a[aOffset + i]) != 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Word-level intersection test on two rows of numWords words
+	 */
+	public static boolean intersects(long[] a, int aOffset, long[] b, int bOffset, int numWords) {
+		for (int i = 0; i < numWords; i++)
+			if ((a[aOffset + i] & b[bOffset + i]) != 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Word-level incompatibility test on two rows of numWords words, done in a single pass
+	 */
+	public static boolean incompatible(long[] a, int aOffset, long[] b, int bOffset, int numWords) {
+		long aMinusB = 0, bMinusA = 0, aAndB = 0;
+		for (int i = 0; i < numWords; i++) {
+			long x = a[aOffset + i];
+			long y = b[bOffset + i];
+			aMinusB |= x & ~y;
+			bMinusA |= y & ~x;
+			aAndB |= x & y;
+		}
+		return aMinusB != 0 && bMinusA != 0 && aAndB != 0;
+	}
+
+	/**
+	 * Word-level equality test on two rows of numWords words
+	 */
+	public static boolean equals(long[] a, int aOffset, long[] b, int bOffset, int numWords) {
+		for (int i = 0; i < numWords; i++)
+			if (a[aOffset + i] != b[bOffset + i])
+				return false;
+		return true;
+	}
+
+	public static boolean isEmpty(long[] a, int offset, int numWords) {
+		for (int i = 0; i < numWords; i++)
+			if (a[offset + i] != 0)
+				return false;
+		return true;
+	}
+
+	public static int cardinality(long[] a, int offset, int numWords) {
+		int count = 0;
+		for (int i = 0; i < numWords; i++)
+			count += Long.bitCount(a[offset + i]);
+		return count;
+	}
+
+	public int hashCode() {
+		long h = 1234;
+		for (int i = words.length; --i >= 0; )
+			h ^= words[i] * (i + 1);
+		return (int) ((h >> 32) ^ h);
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof PackedCluster))
+			return false;
+		return equals(this, (PackedCluster) o);
+	}
+
+	public String toString() {
+		return toBitSet().toString() + ": " + weight;
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.Arrays;
+
+
+/**
+ * Path alignment network of an ensemble of trees.
+ *
+ * Every tree contributes its root-to-leaf paths of mutation groups: one path ends at each group
+ * that has a sample leaf or no children. The paths are indexed in a trie keyed by mutation-group
+ * node id, so a prefix shared by paths of the same tree or of different trees is stored once,
+ * and each tree is inserted in a single pass over its nodes rather than path by path. Trie node k
+ * carries the total weight of the trees containing the path from the root to k, and the weight of
+ * the trees in which that path is a root-to-leaf path.
+ *
+ * Aligning the paths merges all trie edges between the same two groups into one edge of the
+ * network, whose weight is the sum of theirs. Memory is linear in the number of distinct path
+ * prefixes, never in the total length of the paths.
+ */
+public class PathAlignmentNetwork {
+	/** Group id of the germline root in the network */
+	public static final int ROOT = -1;
+
+	// trie, node 0 is the root
+	private int numTrieNodes;
+	private int[] groupIds = new int[16];
+	private int[] trieParents = new int[16];
+	private double[] weights = new double[16];
+	private double[] endWeights = new double[16];
+	private int[] stamps = new int[16]; // last tree ending a path at each node
+
+	// open-addressing map from (trie node, group id) to child trie node
+	private long[] childKeys = new long[32];
+	private int[] childValues = new int[32];
+
+	private int numTrees;
+	private double totalWeight;
+
+	// scratch, indexed by position in a tree
+	private int[] trieOf = new int[0];
+	private int[] order = new int[0];
+	private int[] parents = new int[0];
+	private int[] childCounts = new int[0];
+
+	public PathAlignmentNetwork() {
+		Arrays.fill(childValues, -1);
+		groupIds[0] = ROOT;
+		trieParents[0] = -1;
+		numTrieNodes = 1;
+	}
+
+	public int getNumTrees() {
+		return numTrees;
+	}
+
+	public double getTotalWeight() {
+		return totalWeight;
+	}
+
+	/**
+	 * Adds the paths of a tree, with its weight
+	 */
+	public void addTree(PHYTree tree) {
+		int n = tree.getNumNodes();
+		ensureScratch(n);
+		// parents first, from every parentless node
+		int size = 0;
+		for (int v = tree.getFirstNodeId(); v != -1; v = tree.getNextNodeId(v)) {
+			if (tree.getParentId(v) != -1) {
+				continue;
+			}
+			order[size] = v;
+			parents[size++] = -1;
+			for (int head = size - 1; head < size; head++) {
+				for (int c = tree.getFirstChildId(order[head]); c != -1; c = tree.getNextSiblingId(c)) {
+					order[size] = c;
+					parents[size++] = head;
+				}
+			}
+		}
+		startTree(tree.getWeight());
+		double weight = tree.getWeight();
+		for (int i = 0; i < size; i++) {
+			int v = order[i];
+			addNode(i, tree.getNode(v), tree.getFirstChildId(v) == -1, weight);
+		}
+	}
+
+	/**
+	 * Adds the paths of a tree of an ensemble file
+	 */
+	public void addTree(TreeView tree) {
+		int n = tree.getNumNodes();
+		ensureScratch(n);
+		for (int i = 0; i < n; i++) {
+			parents[i] = tree.getParent(i);
+			childCounts[i] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			if (parents[i] != -1) {
+				childCounts[parents[i]]++;
+			}
+		}
+		startTree(tree.getWeight());
+		double weight = tree.getWeight();
+		for (int i = 0; i < n; i++) {
+			addNode(i, tree.getNode(i), childCounts[i] == 0, weight);
+		}
+	}
+
+	private void ensureScratch(int n) {
+		if (trieOf.length < n) {
+			trieOf = new int[n];
+			order = new int[n];
+			parents = new int[n];
+			childCounts = new int[n];
+		}
+	}
+
+	private void startTree(double weight) {
+		numTrees++;
+		totalWeight += weight;
+		weights[0] += weight;
+	}
+
+	/**
+	 * Maps the node at position i, whose parent has been mapped, to its trie node
+	 */
+	private void addNode(int i, PHYNode node, boolean isChildless, double weight) {
+		int p = parents[i];
+		if (node.isLeaf()) {
+			// a sample leaf ends the path of its parent
+			trieOf[i] = -1;
+			if (p != -1 && trieOf[p] != -1) {
+				endPath(trieOf[p], weight);
+			}
+			return;
+		}
+		int k = (p == -1 ? 0 : trieOf[p]);
+		if (!node.isRoot()) {
+			k = getChild(k, node.getNodeId());
+			weights[k] += weight;
+		}
+		trieOf[i] = k;
+		if (isChildless && k != 0) {
+			endPath(k, weight);
+		}
+	}
+
+	private void endPath(int k, double weight) {
+		if (stamps[k] != numTrees) {
+			stamps[k] = numTrees;
+			endWeights[k] += weight;
+		}
+	}
+
+	private int getChild(int k, int groupId) {
+		long key = ((long) k << 32) | (groupId & 0xFFFFFFFFL);
+		int mask = childKeys.length - 1;
+		int slot = hash(key) & mask;
+		while (childValues[slot] != -1) {
+			if (childKeys[slot] == key) {
+				return childValues[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		int c = numTrieNodes++;
+		if (c == groupIds.length) {
+			int capacity = 2 * c;
+			groupIds = Arrays.copyOf(groupIds, capacity);
+			trieParents = Arrays.copyOf(trieParents, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+			endWeights = Arrays.copyOf(endWeights, capacity);
+			stamps = Arrays.copyOf(stamps, capacity);
+		}
+		groupIds[c] = groupId;
+		trieParents[c] = k;
+		childKeys[slot] = key;
+		childValues[slot] = c;
+		if (2 * numTrieNodes > childKeys.length) {
+			rehash();
+		}
+		return c;
+	}
+
+	private void rehash() {
+		long[] keys = childKeys;
+		int[] values = childValues;
+		childKeys = new long[2 * keys.length];
+		childValues = new int[2 * keys.length];
+		Arrays.fill(childValues, -1);
+		int mask = childKeys.length - 1;
+		for (int s = 0; s < keys.length; s++) {
+			if (values[s] != -1) {
+				int slot = hash(keys[s]) & mask;
+				while (childValues[slot] != -1) {
+					slot = (slot + 1) & mask;
+				}
+				childKeys[slot] = keys[s];
+				childValues[slot] = values[s];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	// ---- trie ----
+
+	/** Returns the number of distinct path prefixes, the empty one included */
+	public int getNumTrieNodes() {
+		return numTrieNodes;
+	}
+
+	/** Returns the mutation group id of trie node k, or ROOT for node 0 */
+	public int getGroupId(int k) {
+		return groupIds[k];
+	}
+
+	/** Returns the parent of trie node k, or -1 for node 0 */
+	public int getTrieParent(int k) {
+		return trieParents[k];
+	}
+
+	/** Returns the total weight of the trees containing the path to trie node k */
+	public double getWeight(int k) {
+		return weights[k];
+	}
+
+	/** Returns the total weight of the trees in which the path to trie node k ends at a leaf */
+	public double getEndWeight(int k) {
+		return endWeights[k];
+	}
+
+	/**
+	 * Returns the mutation group ids of the path to trie node k, from the root down
+	 */
+	public int[] getPath(int k) {
+		int length = 0;
+		for (int j = k; j > 0; j = trieParents[j]) {
+			length++;
+		}
+		int[] path = new int[length];
+		for (int j = k; j > 0; j = trieParents[j]) {
+			path[--length] = groupIds[j];
+		}
+		return path;
+	}
+
+	// ---- aligned network ----
+
+	/**
+	 * Merges the trie edges between equal pairs of groups into the edges of the network
+	 */
+	public Network getNetwork() {
+		int capacity = Integer.highestOneBit(Math.max(2 * numTrieNodes, 16) - 1) << 1;
+		long[] keys = new long[capacity];
+		int[] slots = new int[capacity];
+		Arrays.fill(slots, -1);
+		Network network = new Network(numTrieNodes);
+		for (int k = 1; k < numTrieNodes; k++) {
+			int from = groupIds[trieParents[k]];
+			int to = groupIds[k];
+			long key = ((long) from << 32) | (to & 0xFFFFFFFFL);
+			int slot = hash(key) & (capacity - 1);
+			while (slots[slot] != -1 && keys[slot] != key) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+			if (slots[slot] == -1) {
+				keys[slot] = key;
+				slots[slot] = network.numEdges;
+				network.sources[network.numEdges] = from;
+				network.targets[network.numEdges] = to;
+				network.numEdges++;
+			}
+			network.weights[slots[slot]] += weights[k];
+		}
+		return network;
+	}
+
+	/**
+	 * Weighted edges between mutation group ids; the germline root is ROOT
+	 */
+	public static class Network {
+		private int numEdges;
+		private final int[] sources;
+		private final int[] targets;
+		private final double[] weights;
+
+		Network(int capacity) {
+			sources = new int[capacity];
+			targets = new int[capacity];
+			weights = new double[capacity];
+		}
+
+		public int getNumEdges() {
+			return numEdges;
+		}
+
+		public int getSource(int e) {
+			return sources[e];
+		}
+
+		public int getTarget(int e) {
+			return targets[e];
+		}
+
+		/** Returns the total weight of the path segments aligned into edge e */
+		public double getWeight(int e) {
+			return weights[e];
+		}
+
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			for (int e = 0; e < numEdges; e++) {
+				s.append(sources[e] == ROOT ? "GL" : String.valueOf(sources[e])).append(" -> ").append(targets[e]);
+				s.append(" [").append(weights[e]).append("]\n");
+			}
+			return s.toString();
+		}
+	}
+}
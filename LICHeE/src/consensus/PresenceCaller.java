@@ -0,0 +1,182 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * Calls the presence of SNVs in samples from their VAFs and bins them into mutation groups.
+ *
+ * An SNV is absent from a sample if its VAF is at most maxVAFAbsent and present if it is
+ * at least minVAFPresent; if some VAF falls in between, the SNV is not robust.
+ * Presence bits are packed into the presence matrix of the SNVTable, one bit per table column.
+ * If a normal sample is set, SNVs present in it are treated as germline and left out of the
+ * groups, and its bit is never set.
+ *
+ * Robust SNVs are then binned by presence profile with an open-addressing hash table over
+ * the packed profile words, and each profile becomes a PHYNode whose SNVs are its table rows.
+ */
+public class PresenceCaller {
+	private final double maxVAFAbsent;
+	private final double minVAFPresent;
+	private int normalSample = -1;
+
+	public PresenceCaller(double maxVAFAbsent, double minVAFPresent) {
+		if(maxVAFAbsent > minVAFPresent) {
+			throw new IllegalArgumentException("maxVAFAbsent " + maxVAFAbsent + " is above minVAFPresent " + minVAFPresent);
+		}
+		this.maxVAFAbsent = maxVAFAbsent;
+		this.minVAFPresent = minVAFPresent;
+	}
+
+	/** Sets the table column of the normal sample, or -1 if there is none */
+	public void setNormalSample(int sample) {
+		normalSample = sample;
+	}
+
+	public int getNormalSample() {
+		return normalSample;
+	}
+
+	/**
+	 * Sets the presence bits and the robust flag of every row of the table
+	 * @return the number of robust SNVs
+	 */
+	public int callPresence(SNVTable table) {
+		int numSamples = table.getNumSamples();
+		int words = table.getPresenceWords();
+		float[] vafs = table.getVAFs();
+		long[] presence = table.getPresence();
+		float absent = (float) maxVAFAbsent;
+		float present = (float) minVAFPresent;
+		int robust = 0;
+		for(int row = 0; row < table.size(); row++) {
+			int offset = row * numSamples;
+			// branch-free thresholds, one word of samples at a time
+			int ambiguous = 0;
+			for(int w = 0; w < words; w++) {
+				int from = w << 6;
+				int to = Math.min(from + 64, numSamples);
+				long bits = 0;
+				for(int s = from; s < to; s++) {
+					float v = vafs[offset + s];
+					bits |= (v >= present ? 1L : 0L) << s;
+					ambiguous |= (v > absent && v < present) ? 1 : 0;
+				}
+				presence[row * words + w] = bits;
+			}
+			if(normalSample != -1) {
+				presence[row * words + (normalSample >>> 6)] &= ~(1L << normalSample);
+			}
+			boolean isRobust = ambiguous == 0;
+			table.setRobust(row, isRobust);
+			if(isRobust) {
+				robust++;
+			}
+		}
+		return robust;
+	}
+
+	/**
+	 * Returns true if the SNV of the row is called in the normal sample
+	 */
+	private boolean isGermline(SNVTable table, int row) {
+		return normalSample != -1 && table.getVAF(row, normalSample) >= minVAFPresent;
+	}
+
+	/**
+	 * Calls presence and returns the mutation groups of the robust somatic SNVs,
+	 * in order of first occurrence, with node ids starting at firstNodeId.
+	 * SNVs absent from all samples are not grouped.
+	 */
+	public ArrayList<PHYNode> getMutationGroups(SNVTable table, int firstNodeId) {
+		callPresence(table);
+		int words = table.getPresenceWords();
+		long[] presence = table.getPresence();
+		int n = table.size();
+
+		// open-addressing table of group indices keyed by presence words
+		int capacity = Integer.highestOneBit(Math.max(2 * n, 16) - 1) << 1;
+		int[] slots = new int[capacity];
+		Arrays.fill(slots, -1);
+		long[] keys = new long[16 * words];
+		int[] counts = new int[16];
+		int[] groupOf = new int[n];
+		int numGroups = 0;
+		for(int row = 0; row < n; row++) {
+			groupOf[row] = -1;
+			if(!table.isRobust(row) || isGermline(table, row) || isEmpty(presence, row * words, words)) {
+				continue;
+			}
+			int slot = hash(presence, row * words, words) & (capacity - 1);
+			int g;
+			while((g = slots[slot]) != -1 && !equal(keys, g * words, presence, row * words, words)) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+			if(g == -1) {
+				g = numGroups++;
+				if(numGroups > counts.length) {
+					counts = Arrays.copyOf(counts, 2 * counts.length);
+					keys = Arrays.copyOf(keys, counts.length * words);
+				}
+				System.arraycopy(presence, row * words, keys, g * words, words);
+				slots[slot] = g;
+			}
+			counts[g]++;
+			groupOf[row] = g;
+		}
+
+		// rows of each group, in table order
+		int[][] rows = new int[numGroups][];
+		for(int g = 0; g < numGroups; g++) {
+			rows[g] = new int[counts[g]];
+			counts[g] = 0;
+		}
+		for(int row = 0; row < n; row++) {
+			int g = groupOf[row];
+			if(g != -1) {
+				rows[g][counts[g]++] = row;
+			}
+		}
+
+		ArrayList<PHYNode> groups = new ArrayList<PHYNode>(numGroups);
+		for(int g = 0; g < numGroups; g++) {
+			SampleProfile profile = SampleProfile.get(Arrays.copyOfRange(keys, g * words, (g + 1) * words), table.getNumSamples());
+			groups.add(new PHYNode(profile, table, rows[g], firstNodeId + g));
+		}
+		return groups;
+	}
+
+	private static boolean isEmpty(long[] a, int offset, int words) {
+		for(int w = 0; w < words; w++) {
+			if(a[offset + w] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equal(long[] a, int aOffset, long[] b, int bOffset, int words) {
+		for(int w = 0; w < words; w++) {
+			if(a[aOffset + w] != b[bOffset + w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(long[] a, int offset, int words) {
+		long h = 0x9E3779B97F4A7C15L;
+		for(int w = 0; w < words; w++) {
+			h = (h ^ a[offset + w]) * 0xFF51AFD7ED558CCDL;
+			h ^= h >>> 33;
+		}
+		h *= 0xC4CEB9FE1A85EC53L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -8,16 +8,19 @@ package consensus;
 
 /**
  * Represents an SNV entry
+ * 
+ * Entries handed out by an SNVTable are views on one of its rows; 
+ * entries built from a line keep the line and their own profile.
  */
 public class SNVEntry {
 	
-	/** SNV entry info */
+	/** Table and row backing this entry, or null for a stand-alone entry */
+	protected SNVTable table;
+	protected int row;
+	
+	/** SNV entry info of a stand-alone entry */
 	protected int id;
-	protected int chr;
-	protected int position;
-	protected String description;
 	protected String presenceProfile;
-	protected boolean isRobust;
 	protected String snvEntryString;
 	 
 	public SNVEntry(String line, int lineId) {
@@ -25,46 +28,90 @@ public class SNVEntry {
 		snvEntryString = line;
 	}
 	
+	SNVEntry(SNVTable table, int row) {
+		this.table = table;
+		this.row = row;
+	}
+	
+	/** Returns the table backing this entry, or null */
+	public SNVTable getTable() {
+		return table;
+	}
+	
+	/** Returns the row of this entry in its table */
+	public int getRow() {
+		return row;
+	}
+	
 	public int getId() {
-		return id;
+		return table != null ? table.getLineId(row) : id;
 	}
 	
 	/** Returns the SNV chromosome */
 	public int getChromosome() {
-		return chr;
+		return table != null ? table.getChromosome(row) : 0;
 	}
 	
 	/** Returns the SNV position  */
 	public int getPosition() {
-		return position;
+		return table != null ? table.getPosition(row) : 0;
 	}
 	
 	/** Returns the description field */
 	public String getDescription() {
-		return description;
+		return table != null ? table.getDescription(row) : null;
 	}
 	
 	/** Returns true if the SNV was robustly called in all samples  */
 	public boolean isRobust() {
-		return isRobust;
+		return table != null && table.isRobust(row);
 	}
 	
 	/** Returns the sample presence-absence profile */
 	public String getProfile() {
-		return presenceProfile;
+		if(table == null) {
+			return presenceProfile;
+		}
+		char[] tag = new char[table.getNumSamples()];
+		for(int s = 0; s < tag.length; s++) {
+			tag[s] = table.isPresent(row, s) ? '1' : '0';
+		}
+		return new String(tag);
 	}
 	
 	/** Sets the sample presence-absence profile */
 	public void updateGroup(String code) {
-		presenceProfile = code;
+		if(table != null) {
+			table.setProfile(row, code);
+		} else {
+			presenceProfile = code;
+		}
 	}
 	
 	/** Returns true if profile[sampleId] == 1 */
 	public boolean isPresent(int sampleId) {
+		if(table != null) {
+			return table.isPresent(row, sampleId);
+		}
 		return presenceProfile.charAt(sampleId) == '1';
 	}
 	
+	public boolean equals(Object o) {
+		if(!(o instanceof SNVEntry)) {
+			return false;
+		}
+		SNVEntry e = (SNVEntry) o;
+		if(table != null) {
+			return table == e.table && row == e.row;
+		}
+		return this == o;
+	}
+	
+	public int hashCode() {
+		return table != null ? System.identityHashCode(table) * 31 + row : System.identityHashCode(this);
+	}
+	
 	public String toString() {
-		return snvEntryString;
+		return table != null ? table.toString(row) : snvEntryString;
 	}
 }
@@ -0,0 +1,425 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+/**
+ * Columnar store of SNVs and their per-sample VAFs.
+ *
+ * Each column is a primitive array indexed by row: input line id, chromosome code, position,
+ * and a row-major float matrix of VAFs (numSamples per row). The input lines are kept as UTF-8
+ * bytes in one pool with a row offset index, the description of a row being a range of its line,
+ * and presence calls as a packed bit matrix with getPresenceWords() words per row.
+ * SNVEntry objects handed out by the table are views on a row.
+ *
+ * Chromosomes chr1-chr22, X, Y and M (with or without the "chr" prefix) have codes 1-25;
+ * other names are given codes from 26 on in order of appearance.
+ */
+public class SNVTable {
+	/** Largest number of entries of a column array, VAFs and bytes of input lines included */
+	public static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	/** Largest initial size of the line pool, which grows as rows are added */
+	private static final int MAX_INITIAL_LINE_BYTES = 1 << 26;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String[] CHROMOSOME_NAMES = new String[26];
+	static {
+		for(int i = 1; i <= 22; i++) {
+			CHROMOSOME_NAMES[i] = "chr" + i;
+		}
+		CHROMOSOME_NAMES[23] = "chrX";
+		CHROMOSOME_NAMES[24] = "chrY";
+		CHROMOSOME_NAMES[25] = "chrM";
+	}
+
+	private final int numSamples;
+	private final int presenceWords;
+	private String[] sampleNames;
+	private int size;
+
+	private int[] lineIds;
+	private int[] chromosomes;
+	private int[] positions;
+	private float[] vafs;
+	private long[] presence;
+	private final BitSet robust = new BitSet();
+	private int[] lineStarts;
+	private byte[] lines;
+	private int[] descriptionStarts; // in lines
+	private int[] descriptionLengths;
+
+	private final ArrayList<String> otherChromosomes = new ArrayList<String>();
+	private final HashMap<String, Integer> otherChromosomeCodes = new HashMap<String, Integer>();
+
+	public SNVTable(int numSamples) {
+		this(numSamples, 16);
+	}
+
+	public SNVTable(int numSamples, int capacity) {
+		this.numSamples = numSamples;
+		this.presenceWords = PackedCluster.numWords(numSamples);
+		capacity = Math.max(capacity, 1);
+		lineStarts = new int[arraySize(capacity + 1L, "rows")];
+		vafs = new float[arraySize((long) capacity * numSamples, "VAFs")];
+		presence = new long[arraySize((long) capacity * presenceWords, "presence words")];
+		lineIds = new int[capacity];
+		chromosomes = new int[capacity];
+		positions = new int[capacity];
+		lines = new byte[(int) Math.min((32L + 8L * numSamples) * capacity, MAX_INITIAL_LINE_BYTES)];
+		descriptionStarts = new int[capacity];
+		descriptionLengths = new int[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	/** Returns the sample names from the input header, or null if not known */
+	public String[] getSampleNames() {
+		return sampleNames;
+	}
+
+	public void setSampleNames(String[] names) {
+		sampleNames = names;
+	}
+
+	/**
+	 * Checks that an array of n entries can be allocated
+	 * @throws IllegalStateException if the table would grow beyond MAX_ARRAY_SIZE entries of some column
+	 */
+	private static int arraySize(long n, String what) {
+		if(n > MAX_ARRAY_SIZE) {
+			throw new IllegalStateException("SNV table too large: " + n + " " + what + ", at most "
+					+ MAX_ARRAY_SIZE + " fit in one table");
+		}
+		return (int) n;
+	}
+
+	private void ensureCapacity(long rows) {
+		if(rows <= lineIds.length) {
+			return;
+		}
+		long wanted = Math.max(rows, Math.min(2L * lineIds.length, MAX_ARRAY_SIZE - 1));
+		int capacity = arraySize(wanted, "rows");
+		int vafSize = arraySize((long) capacity * numSamples, "VAFs");
+		int presenceSize = arraySize((long) capacity * presenceWords, "presence words");
+		lineIds = Arrays.copyOf(lineIds, capacity);
+		chromosomes = Arrays.copyOf(chromosomes, capacity);
+		positions = Arrays.copyOf(positions, capacity);
+		vafs = Arrays.copyOf(vafs, vafSize);
+		presence = Arrays.copyOf(presence, presenceSize);
+		lineStarts = Arrays.copyOf(lineStarts, capacity + 1);
+		descriptionStarts = Arrays.copyOf(descriptionStarts, capacity);
+		descriptionLengths = Arrays.copyOf(descriptionLengths, capacity);
+	}
+
+	private void ensureLineCapacity(long bytes) {
+		if(bytes > lines.length) {
+			lines = Arrays.copyOf(lines, arraySize(Math.max(bytes, Math.min(2L * lines.length, MAX_ARRAY_SIZE)),
+					"bytes of input lines"));
+		}
+	}
+
+	/** Returns the number of bytes of input lines kept by the table */
+	public long getLineBytes() {
+		return lineStarts[size];
+	}
+
+	/**
+	 * Appends a row read from the input line line[offset..offset+length-1] (UTF-8), whose
+	 * description is line[descriptionOffset..descriptionOffset+descriptionLength-1]
+	 * and whose VAFs are vaf[vafOffset..vafOffset+numSamples-1]
+	 * @return the row index
+	 */
+	public int addRow(int lineId, int chromosome, int position, byte[] line, int offset, int length,
+			int descriptionOffset, int descriptionLength, float[] vaf, int vafOffset) {
+		ensureCapacity(size + 1);
+		int row = size++;
+		lineIds[row] = lineId;
+		chromosomes[row] = chromosome;
+		positions[row] = position;
+		System.arraycopy(vaf, vafOffset, vafs, row * numSamples, numSamples);
+		int start = lineStarts[row];
+		ensureLineCapacity((long) start + length);
+		System.arraycopy(line, offset, lines, start, length);
+		lineStarts[row + 1] = start + length;
+		descriptionStarts[row] = start + descriptionOffset - offset;
+		descriptionLengths[row] = descriptionLength;
+		return row;
+	}
+
+	/**
+	 * Appends a row whose description is description[offset..offset+length-1] (UTF-8)
+	 * and whose VAFs are vaf[vafOffset..vafOffset+numSamples-1]; its line is formatted
+	 * from the columns
+	 * @return the row index
+	 */
+	public int addRow(int lineId, int chromosome, int position, byte[] description, int offset, int length,
+			float[] vaf, int vafOffset) {
+		return addFormattedRow(lineId, chromosome, getChromosomeName(chromosome), position, description, offset, length,
+				vaf, vafOffset);
+	}
+
+	public int addRow(int lineId, String chromosome, int position, String description, float[] vaf) {
+		byte[] bytes = description.getBytes(UTF8);
+		return addFormattedRow(lineId, getChromosomeCode(chromosome), chromosome, position, bytes, 0, bytes.length, vaf, 0);
+	}
+
+	private int addFormattedRow(int lineId, int chromosome, String chromosomeName, int position, byte[] description,
+			int offset, int length, float[] vaf, int vafOffset) {
+		byte[] head = (chromosomeName + "\t" + position + "\t").getBytes(UTF8);
+		StringBuilder tail = new StringBuilder();
+		for(int s = 0; s < numSamples; s++) {
+			tail.append('\t').append(vaf[vafOffset + s]);
+		}
+		byte[] tailBytes = tail.toString().getBytes(UTF8);
+		byte[] line = new byte[head.length + length + tailBytes.length];
+		System.arraycopy(head, 0, line, 0, head.length);
+		System.arraycopy(description, offset, line, head.length, length);
+		System.arraycopy(tailBytes, 0, line, head.length + length, tailBytes.length);
+		return addRow(lineId, chromosome, position, line, 0, line.length, head.length, length, vaf, vafOffset);
+	}
+
+	/**
+	 * Appends all rows of another table with the same samples, keeping its chromosome names
+	 */
+	public void addAll(SNVTable t) {
+		addAll(t, 0);
+	}
+
+	/**
+	 * Appends all rows of another table, adding lineIdOffset to their line ids
+	 */
+	public void addAll(SNVTable t, int lineIdOffset) {
+		if(t.numSamples != numSamples) {
+			throw new IllegalArgumentException("Tables have " + numSamples + " and " + t.numSamples + " samples");
+		}
+		ensureCapacity((long) size + t.size);
+		int[] codes = new int[t.otherChromosomes.size()];
+		for(int i = 0; i < codes.length; i++) {
+			codes[i] = getChromosomeCode(t.otherChromosomes.get(i));
+		}
+		for(int i = 0; i < t.size; i++) {
+			int c = t.chromosomes[i];
+			chromosomes[size + i] = c < CHROMOSOME_NAMES.length ? c : codes[c - CHROMOSOME_NAMES.length];
+		}
+		for(int i = 0; i < t.size; i++) {
+			lineIds[size + i] = t.lineIds[i] + lineIdOffset;
+		}
+		System.arraycopy(t.positions, 0, positions, size, t.size);
+		System.arraycopy(t.vafs, 0, vafs, size * numSamples, t.size * numSamples);
+		System.arraycopy(t.presence, 0, presence, size * presenceWords, t.size * presenceWords);
+		for(int i = t.robust.nextSetBit(0); i >= 0; i = t.robust.nextSetBit(i + 1)) {
+			robust.set(size + i);
+		}
+		int base = lineStarts[size];
+		int bytes = t.lineStarts[t.size];
+		ensureLineCapacity((long) base + bytes);
+		System.arraycopy(t.lines, 0, lines, base, bytes);
+		for(int i = 0; i < t.size; i++) {
+			lineStarts[size + i + 1] = base + t.lineStarts[i + 1];
+			descriptionStarts[size + i] = base + t.descriptionStarts[i];
+		}
+		System.arraycopy(t.descriptionLengths, 0, descriptionLengths, size, t.size);
+		size += t.size;
+	}
+
+	// chromosomes
+
+	/**
+	 * Returns the code of a chromosome name, assigning a new code to non-standard names
+	 */
+	public int getChromosomeCode(String name) {
+		byte[] bytes = name.getBytes(UTF8);
+		int code = getStandardChromosomeCode(bytes, 0, bytes.length);
+		if(code != -1) {
+			return code;
+		}
+		synchronized(otherChromosomeCodes) {
+			Integer c = otherChromosomeCodes.get(name);
+			if(c == null) {
+				c = CHROMOSOME_NAMES.length + otherChromosomes.size();
+				otherChromosomes.add(name);
+				otherChromosomeCodes.put(name, c);
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * Returns the code 1-25 of chr1-chr22, X, Y or M (MT) given as ASCII bytes name[from..to-1],
+	 * or -1 for other names
+	 */
+	public static int getStandardChromosomeCode(byte[] name, int from, int to) {
+		if(to - from > 3 && name[from] == 'c' && name[from + 1] == 'h' && name[from + 2] == 'r') {
+			from += 3;
+		}
+		if(to - from == 1 || (to - from == 2 && name[from] == 'M')) {
+			byte c = name[from];
+			if(c == 'X') return 23;
+			if(c == 'Y') return 24;
+			if(c == 'M' && (to - from == 1 || name[from + 1] == 'T')) return 25;
+		}
+		if(to - from < 1 || to - from > 2) {
+			return -1;
+		}
+		int code = 0;
+		for(int i = from; i < to; i++) {
+			byte c = name[i];
+			if(c < '0' || c > '9') {
+				return -1;
+			}
+			code = 10 * code + (c - '0');
+		}
+		return code >= 1 && code <= 22 ? code : -1;
+	}
+
+	public String getChromosomeName(int code) {
+		if(code > 0 && code < CHROMOSOME_NAMES.length) {
+			return CHROMOSOME_NAMES[code];
+		}
+		return otherChromosomes.get(code - CHROMOSOME_NAMES.length);
+	}
+
+	// columns
+
+	public int getLineId(int row) {
+		return lineIds[row];
+	}
+
+	public int getChromosome(int row) {
+		return chromosomes[row];
+	}
+
+	public int getPosition(int row) {
+		return positions[row];
+	}
+
+	public float getVAF(int row, int sample) {
+		return vafs[row * numSamples + sample];
+	}
+
+	public void setVAF(int row, int sample, float vaf) {
+		vafs[row * numSamples + sample] = vaf;
+	}
+
+	/**
+	 * Returns the VAF matrix, row-major with getNumSamples() entries per row;
+	 * only the first size() rows are valid
+	 */
+	public float[] getVAFs() {
+		return vafs;
+	}
+
+	public String getDescription(int row) {
+		return new String(lines, descriptionStarts[row], descriptionLengths[row], UTF8);
+	}
+
+	public boolean isRobust(int row) {
+		return robust.get(row);
+	}
+
+	public void setRobust(int row, boolean isRobust) {
+		robust.set(row, isRobust);
+	}
+
+	// presence
+
+	public int getPresenceWords() {
+		return presenceWords;
+	}
+
+	/**
+	 * Returns the presence matrix, with getPresenceWords() words per row;
+	 * bit s of a row is set if the SNV is present in sample s
+	 */
+	public long[] getPresence() {
+		return presence;
+	}
+
+	public boolean isPresent(int row, int sample) {
+		return (presence[row * presenceWords + (sample >>> 6)] & (1L << sample)) != 0;
+	}
+
+	public void setPresent(int row, int sample, boolean present) {
+		int w = row * presenceWords + (sample >>> 6);
+		if(present) {
+			presence[w] |= 1L << sample;
+		} else {
+			presence[w] &= ~(1L << sample);
+		}
+	}
+
+	/**
+	 * Sets the presence of a row from a binary tag ('1' = present)
+	 */
+	public void setProfile(int row, String tag) {
+		Arrays.fill(presence, row * presenceWords, (row + 1) * presenceWords, 0);
+		for(int s = 0; s < tag.length() && s < numSamples; s++) {
+			if(tag.charAt(s) == '1') {
+				presence[row * presenceWords + (s >>> 6)] |= 1L << s;
+			}
+		}
+	}
+
+	/**
+	 * Returns the presence of a row as a shared sample profile
+	 */
+	public SampleProfile getProfile(int row) {
+		return SampleProfile.get(Arrays.copyOfRange(presence, row * presenceWords, (row + 1) * presenceWords), numSamples);
+	}
+
+	// views
+
+	/** Returns a view of a row */
+	public SNVEntry getEntry(int row) {
+		return new SNVEntry(this, row);
+	}
+
+	/**
+	 * Returns a read-only list view of the given rows; entries are created on access
+	 */
+	public List<SNVEntry> getEntries(int[] rows) {
+		return new EntryList(rows);
+	}
+
+	private class EntryList extends AbstractList<SNVEntry> implements RandomAccess {
+		private final int[] rows;
+
+		EntryList(int[] rows) {
+			this.rows = rows;
+		}
+
+		public SNVEntry get(int i) {
+			return new SNVEntry(SNVTable.this, rows[i]);
+		}
+
+		public int size() {
+			return rows.length;
+		}
+	}
+
+	/**
+	 * Returns the input line of a row: chromosome, position, description and VAFs as read
+	 */
+	public String toString(int row) {
+		return new String(lines, lineStarts[row], lineStarts[row + 1] - lineStarts[row], UTF8);
+	}
+}
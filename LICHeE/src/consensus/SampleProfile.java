@@ -6,88 +6,230 @@
 package consensus;
 
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.WeakHashMap;
 
 
 public class SampleProfile implements Serializable {
 
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
+
+	/** Interned profiles, see get(); weakly held, so that profiles no longer used are dropped */
+	private static final WeakHashMap<SampleProfile, WeakReference<SampleProfile>> pool = new WeakHashMap<SampleProfile, WeakReference<SampleProfile>>();
+
+	/** Total number of input samples (the length of the binary tag) */
+	private final int numSamplesTotal;
+
+	/** Samples represented by this group: bit i is set if the i-th character of the tag is '1' */
+	private final long[] mask;
 
-	/** Binary tag identifying the group 
-	 * (the length of the tag is equal to the number of input samples) */
-	private String tag;
-	
 	/** Number of samples represented by this group */
-	private int numSamples;
-	
-	/** Indices of the samples represented in this group (from 0 to |tag|-1 MSF order) */
-	private int[] sampleIndex;
-	
+	private final int numSamples;
+
+	private final int hash;
+
+	/** Indices of the samples represented in this group, built on demand */
+	private transient int[] sampleIndex;
+
+	/** Binary tag identifying the group, built on demand */
+	private transient String tag;
+
 	public SampleProfile(String groupTag) {
+		numSamplesTotal = groupTag.length();
+		mask = new long[PackedCluster.numWords(numSamplesTotal)];
+		for(int i = 0; i < numSamplesTotal; i++) {
+			if(groupTag.charAt(i) == '1') {
+				mask[i >>> 6] |= 1L << i;
+			}
+		}
 		tag = groupTag;
-		numSamples = 0;		
-		sampleIndex = new int[tag.length()];
-		for(int i = 0; i < tag.length(); i++) {
-			if(tag.charAt(i) == '1') {
-				sampleIndex[numSamples] = i;
-				numSamples++;
+		numSamples = countSamples(mask);
+		hash = hash(mask, numSamplesTotal);
+	}
+
+	/**
+	 * Profile of the samples set in the given mask; the mask is copied
+	 */
+	public SampleProfile(long[] sampleMask, int numSamplesTotal) {
+		this.numSamplesTotal = numSamplesTotal;
+		mask = Arrays.copyOf(sampleMask, PackedCluster.numWords(numSamplesTotal));
+		if(numSamplesTotal % 64 != 0 && mask.length > 0) {
+			mask[mask.length - 1] &= (1L << numSamplesTotal) - 1;
+		}
+		numSamples = countSamples(mask);
+		hash = hash(mask, numSamplesTotal);
+	}
+
+	private static int countSamples(long[] mask) {
+		int count = 0;
+		for(long w : mask) {
+			count += Long.bitCount(w);
+		}
+		return count;
+	}
+
+	private static int hash(long[] mask, int numSamplesTotal) {
+		return 31 * Arrays.hashCode(mask) + numSamplesTotal;
+	}
+
+	/**
+	 * Returns the shared instance of the profile with the given tag
+	 */
+	public static SampleProfile get(String groupTag) {
+		return new SampleProfile(groupTag).intern();
+	}
+
+	/**
+	 * Returns the shared instance of the profile of the samples set in the given mask
+	 */
+	public static SampleProfile get(long[] sampleMask, int numSamplesTotal) {
+		return new SampleProfile(sampleMask, numSamplesTotal).intern();
+	}
+
+	/**
+	 * Returns the shared instance equal to this profile
+	 */
+	public SampleProfile intern() {
+		synchronized(pool) {
+			WeakReference<SampleProfile> ref = pool.get(this);
+			SampleProfile p = (ref == null ? null : ref.get());
+			if(p == null) {
+				pool.put(this, new WeakReference<SampleProfile>(this));
+				p = this;
 			}
+			return p;
 		}
 	}
-	
+
+	private Object readResolve() {
+		return intern();
+	}
+
 	// Getters/Setters
-	
+
 	public int getNumSamples() {
 		return numSamples;
 	}
-	
+
 	public int getNumSamplesTotal() {
-		return tag.length();
+		return numSamplesTotal;
 	}
-	
+
+	/**
+	 * Returns the ids of the samples represented by this profile, in increasing order
+	 */
 	public int[] getSampleIds() {
-		return sampleIndex;
+		int[] ids = sampleIndex;
+		if(ids == null) {
+			ids = new int[numSamples];
+			int k = 0;
+			for(int w = 0; w < mask.length; w++) {
+				for(long bits = mask[w]; bits != 0; bits &= bits - 1) {
+					ids[k++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+				}
+			}
+			sampleIndex = ids;
+		}
+		return ids;
 	}
-	
+
 	public String getTag() {
-		return tag;
+		String t = tag;
+		if(t == null) {
+			char[] chars = new char[numSamplesTotal];
+			for(int i = 0; i < numSamplesTotal; i++) {
+				chars[i] = containsSample(i) ? '1' : '0';
+			}
+			t = new String(chars);
+			tag = t;
+		}
+		return t;
 	}
-	
+
+	/** Returns the number of 64-bit words of the sample mask */
+	public int getNumWords() {
+		return mask.length;
+	}
+
+	/** Returns word w of the sample mask (samples 64w to 64w+63) */
+	public long getWord(int w) {
+		return mask[w];
+	}
+
 	/**
 	 * Returns the index of this sample of those represented by this profile
 	 * @return -1 if this sample is not represented in the group
 	 */
 	public int getSampleIndex(int sampleId) {
-		for(int i = 0; i < numSamples; i++) {
-			if(sampleIndex[i] == sampleId) {
-				return i;
-			}
+		if(!containsSample(sampleId)) {
+			return -1;
+		}
+		int w = sampleId >>> 6;
+		int index = Long.bitCount(mask[w] & ((1L << sampleId) - 1));
+		for(int i = 0; i < w; i++) {
+			index += Long.bitCount(mask[i]);
 		}
-		return -1;
+		return index;
 	}
-	
+
 	/**
 	 * Returns true if the given sample contains the mutations of this group
 	 */
 	public boolean containsSample(int sampleId) {
-		return (getSampleIndex(sampleId) != -1);
+		return sampleId >= 0 && sampleId < numSamplesTotal && (mask[sampleId >>> 6] & (1L << sampleId)) != 0;
 	}
-	
-	public boolean equals(Object o) {
-		if(!(o instanceof SampleProfile)) {
+
+	/**
+	 * Returns true if every sample of this profile is also in p
+	 */
+	public boolean isSubsetOf(SampleProfile p) {
+		if(numSamples > p.numSamples) {
 			return false;
 		}
-		SampleProfile g = (SampleProfile) o;
-		if(this.tag == g.tag) {
+		int common = Math.min(mask.length, p.mask.length);
+		for(int i = 0; i < common; i++) {
+			if((mask[i] & ~p.mask[i]) != 0) {
+				return false;
+			}
+		}
+		for(int i = common; i < mask.length; i++) {
+			if(mask[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if this profile and p share a sample
+	 */
+	public boolean intersects(SampleProfile p) {
+		int common = Math.min(mask.length, p.mask.length);
+		for(int i = 0; i < common; i++) {
+			if((mask[i] & p.mask[i]) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean equals(Object o) {
+		if(this == o) {
 			return true;
-		} else {
+		}
+		if(!(o instanceof SampleProfile)) {
 			return false;
 		}
+		SampleProfile g = (SampleProfile) o;
+		return hash == g.hash && numSamplesTotal == g.numSamplesTotal && Arrays.equals(mask, g.mask);
+	}
+
+	public int hashCode() {
+		return hash;
 	}
-	
+
 	public String toString() {
-		String group = "";
-		group += "tag = " + this.tag + ", ";
-		group += "numSamples = " + this.numSamples;
-		return group;
+		return "tag = " + getTag() + ", numSamples = " + numSamples;
 	}
 }
@@ -5,6 +5,8 @@
 
 package consensus;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Comparator;
@@ -28,11 +30,33 @@ public class Test {
 	protected static final Logger logger = Logger.getLogger("test");
 
 	public static void testBuild(Args args) {
+		File input = new File(args.inputFileName);
+		if(input.isFile()) {
+			try {
+				long start = System.nanoTime();
+				SNVTable snvs = VAFTableReader.read(input.toPath());
+				logger.info("Read " + snvs.size() + " SNVs in " + snvs.getNumSamples() + " samples from " 
+						+ args.inputFileName + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+				PresenceCaller caller = new PresenceCaller(args.maxVAFAbsent, args.minVAFPresent);
+				caller.setNormalSample(args.normalSample);
+				ArrayList<PHYNode> groups = caller.getMutationGroups(snvs, 1);
+				logger.info("Binned the robust SNVs into " + groups.size() + " mutation groups");
+				for(PHYNode g : groups) {
+					logger.fine(g.getSampleProfile().getTag() + "\t" + g.getSize());
+				}
+			} catch(IOException e) {
+				logger.severe("Failed to read " + args.inputFileName + ": " + e.getMessage());
+				System.exit(-1);
+			}
+		} else {
+			logger.warning("Input file not found: " + args.inputFileName);
+		}
+		
 		PHYTree tree = new PHYTree();
 		PHYNode root = new PHYNode(0);
 		PHYNode leaf = new PHYNode(0,1);
 
-		SampleProfile profile = new SampleProfile("1");
+		SampleProfile profile = SampleProfile.get("1");
 		SNVEntry entry = new SNVEntry("test snv entry", 0);
 		ArrayList<SNVEntry> entries = new ArrayList<SNVEntry>();
 		entries.add(entry);
@@ -56,8 +80,8 @@ public class Test {
 		ArrayList<SNVEntry> snvEntries = new ArrayList<SNVEntry>();
 		snvEntries.add(new SNVEntry("line1", 1));
 		snvEntries.add(new SNVEntry("line2", 2));
-		PHYNode mut1 = new PHYNode(new SampleProfile("10"), snvEntries, 1);
-		PHYNode mut2 = new PHYNode(new SampleProfile("01"), new ArrayList<SNVEntry>(), 2);
+		PHYNode mut1 = new PHYNode(SampleProfile.get("10"), snvEntries, 1);
+		PHYNode mut2 = new PHYNode(SampleProfile.get("01"), new ArrayList<SNVEntry>(), 2);
 		mutationGroups.add(mut1);
 		mutationGroups.add(mut2);
 
@@ -87,6 +111,9 @@ public class Test {
 		// Input/Output/Display
 		options.addOption("i", true, "Input file path [required]");
 		options.addOption("o", true, "Output file path (default: input file with suffix .trees.txt)");
+		options.addOption("n", "normal", true, "Normal sample column id in the list of samples, 0-based (e.g 0 is the first column) [default: 0]");
+		options.addOption("maxVAFAbsent", true, "Maximum VAF to robustly consider an SNV as absent from a sample [default: 0.005]");
+		options.addOption("minVAFPresent", true, "Minimum VAF to robustly consider an SNV as present in a sample [default: 0.005]");
 	
 		options.addOption("v", "verbose", false, "Verbose mode");
 		options.addOption("h", "help", false, "Print usage");
@@ -97,6 +124,9 @@ public class Test {
 
 		optionsList.add(options.getOption("i"));
 		optionsList.add(options.getOption("o"));
+		optionsList.add(options.getOption("n"));
+		optionsList.add(options.getOption("maxVAFAbsent"));
+		optionsList.add(options.getOption("minVAFPresent"));
 		optionsList.add(options.getOption("v"));
 		optionsList.add(options.getOption("h"));
 		
@@ -126,6 +156,15 @@ public class Test {
 		} else {
 			params.outputFileName = params.inputFileName + TREES_TXT_FILE_EXTENSION;
 		}
+		if(cmdLine.hasOption("n")) {
+			params.normalSample = Integer.parseInt(cmdLine.getOptionValue("n"));
+		}
+		if(cmdLine.hasOption("maxVAFAbsent")) {
+			params.maxVAFAbsent = Double.parseDouble(cmdLine.getOptionValue("maxVAFAbsent"));
+		}
+		if(cmdLine.hasOption("minVAFPresent")) {
+			params.minVAFPresent = Double.parseDouble(cmdLine.getOptionValue("minVAFPresent"));
+		}
 		if(cmdLine.hasOption("h")) {
 			new HelpFormatter().printHelp(" ", options);
 		}
@@ -154,6 +193,9 @@ public class Test {
 		// --- 'build' command ---
 		String inputFileName;
 		String outputFileName;
+		int normalSample = 0;
+		double maxVAFAbsent = 0.005;
+		double minVAFPresent = 0.005;
 	}
 
 	protected static class LogFormatter extends Formatter {
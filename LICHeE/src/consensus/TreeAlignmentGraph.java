@@ -0,0 +1,379 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Tree alignment graph of an ensemble of trees.
+ *
+ * The trees are overlaid on one graph whose nodes are matched by identity: all germline roots
+ * form one node, sample leaves are matched by sample id, and mutation groups by node id and
+ * sample profile. Each edge of a tree adds the tree's weight to the support of the matching
+ * graph edge and its tree number to the edge's provenance set.
+ *
+ * Nodes and edges are found through open-addressing hash tables over primitive keys.
+ * Trees are added one at a time, so an ensemble file can be streamed through tree views.
+ * Graphs built from disjoint parts of an ensemble can be merged, which is how build()
+ * constructs the graph of an ensemble in parallel.
+ */
+public class TreeAlignmentGraph {
+	private static final int MIN_TASK_SIZE = 64;
+	private static final int ROOT_KIND = 0;
+	private static final int LEAF_KIND = 1;
+	private static final int GROUP_KIND = 2;
+
+	// nodes
+	private int numNodes;
+	private PHYNode[] nodes = new PHYNode[16];
+	private double[] nodeSupport = new double[16];
+	private int[] nodeSlots = newSlots(32);
+
+	// edges
+	private int numEdges;
+	private int[] sources = new int[16];
+	private int[] targets = new int[16];
+	private double[] edgeSupport = new double[16];
+	private int[] edgeCounts = new int[16];
+	private CompressedIntSet[] edgeTrees = new CompressedIntSet[16];
+	private long[] edgeKeys = new long[32];
+	private int[] edgeSlots = newSlots(32);
+
+	private int numTrees;
+	private double totalWeight;
+
+	// scratch: graph node of each tree node
+	private int[] nodeOf = new int[0];
+
+	private static int[] newSlots(int capacity) {
+		int[] slots = new int[capacity];
+		Arrays.fill(slots, -1);
+		return slots;
+	}
+
+	public int getNumTrees() {
+		return numTrees;
+	}
+
+	public double getTotalWeight() {
+		return totalWeight;
+	}
+
+	/**
+	 * Adds a tree under the given tree number
+	 */
+	public void addTree(PHYTree tree, int treeNumber) {
+		if (nodeOf.length < tree.getIdCapacity()) {
+			nodeOf = new int[tree.getIdCapacity()];
+		}
+		double weight = tree.getWeight();
+		startTree(weight);
+		for (int v = tree.getFirstNodeId(); v != -1; v = tree.getNextNodeId(v)) {
+			nodeOf[v] = getNode(tree.getNode(v), weight);
+		}
+		for (int v = tree.getFirstNodeId(); v != -1; v = tree.getNextNodeId(v)) {
+			int p = tree.getParentId(v);
+			if (p != -1) {
+				addEdge(nodeOf[p], nodeOf[v], weight, 1, treeNumber);
+			}
+		}
+	}
+
+	/**
+	 * Adds a tree of an ensemble file under its tree number
+	 */
+	public void addTree(TreeView tree) {
+		int n = tree.getNumNodes();
+		if (nodeOf.length < n) {
+			nodeOf = new int[n];
+		}
+		double weight = tree.getWeight();
+		startTree(weight);
+		for (int i = 0; i < n; i++) {
+			nodeOf[i] = getNode(tree.getNode(i), weight);
+			int p = tree.getParent(i);
+			if (p != -1) {
+				addEdge(nodeOf[p], nodeOf[i], weight, 1, tree.getTreeNumber());
+			}
+		}
+	}
+
+	private void startTree(double weight) {
+		numTrees++;
+		totalWeight += weight;
+	}
+
+	/**
+	 * Adds all trees, nodes and edges of another graph
+	 */
+	public void merge(TreeAlignmentGraph g) {
+		numTrees += g.numTrees;
+		totalWeight += g.totalWeight;
+		int[] map = new int[g.numNodes];
+		for (int u = 0; u < g.numNodes; u++) {
+			map[u] = getNode(g.nodes[u], g.nodeSupport[u]);
+		}
+		for (int e = 0; e < g.numEdges; e++) {
+			int f = findEdge(map[g.sources[e]], map[g.targets[e]]);
+			edgeSupport[f] += g.edgeSupport[e];
+			edgeCounts[f] += g.edgeCounts[e];
+			edgeTrees[f].or(g.edgeTrees[e]);
+		}
+	}
+
+	// ---- node index ----
+
+	private static int getKind(PHYNode n) {
+		return n.isRoot() ? ROOT_KIND : (n.isLeaf() ? LEAF_KIND : GROUP_KIND);
+	}
+
+	private static int hashNode(PHYNode n) {
+		int kind = getKind(n);
+		long h;
+		if (kind == ROOT_KIND) {
+			h = 0;
+		} else if (kind == LEAF_KIND) {
+			h = ((long) LEAF_KIND << 32) | (n.getLeafSampleId() & 0xFFFFFFFFL);
+		} else {
+			h = ((long) n.getNodeId() << 32) | (n.getSampleProfile().hashCode() & 0xFFFFFFFFL);
+		}
+		h = (h + kind) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static boolean matches(PHYNode a, PHYNode b) {
+		int kind = getKind(a);
+		if (kind != getKind(b)) {
+			return false;
+		}
+		if (kind == ROOT_KIND) {
+			return true;
+		}
+		if (kind == LEAF_KIND) {
+			return a.getLeafSampleId() == b.getLeafSampleId();
+		}
+		return a.getNodeId() == b.getNodeId() && a.getSampleProfile().equals(b.getSampleProfile());
+	}
+
+	/**
+	 * Returns the graph node matching n, adding it if needed, and adds to its support
+	 */
+	private int getNode(PHYNode n, double support) {
+		int mask = nodeSlots.length - 1;
+		int slot = hashNode(n) & mask;
+		int u;
+		while ((u = nodeSlots[slot]) != -1) {
+			if (matches(nodes[u], n)) {
+				nodeSupport[u] += support;
+				return u;
+			}
+			slot = (slot + 1) & mask;
+		}
+		u = numNodes++;
+		if (u == nodes.length) {
+			nodes = Arrays.copyOf(nodes, 2 * u);
+			nodeSupport = Arrays.copyOf(nodeSupport, 2 * u);
+		}
+		nodes[u] = n;
+		nodeSupport[u] = support;
+		nodeSlots[slot] = u;
+		if (2 * numNodes > nodeSlots.length) {
+			nodeSlots = newSlots(2 * nodeSlots.length);
+			for (int k = 0; k < numNodes; k++) {
+				int s = hashNode(nodes[k]) & (nodeSlots.length - 1);
+				while (nodeSlots[s] != -1) {
+					s = (s + 1) & (nodeSlots.length - 1);
+				}
+				nodeSlots[s] = k;
+			}
+		}
+		return u;
+	}
+
+	// ---- edge index ----
+
+	private static int hashEdge(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	private void addEdge(int u, int v, double support, int count, int treeNumber) {
+		int e = findEdge(u, v);
+		edgeSupport[e] += support;
+		edgeCounts[e] += count;
+		edgeTrees[e].add(treeNumber);
+	}
+
+	/**
+	 * Returns the edge u -> v, adding it without support if needed
+	 */
+	private int findEdge(int u, int v) {
+		long key = ((long) u << 32) | (v & 0xFFFFFFFFL);
+		int mask = edgeSlots.length - 1;
+		int slot = hashEdge(key) & mask;
+		int e;
+		while ((e = edgeSlots[slot]) != -1) {
+			if (edgeKeys[slot] == key) {
+				return e;
+			}
+			slot = (slot + 1) & mask;
+		}
+		e = numEdges++;
+		if (e == sources.length) {
+			int capacity = 2 * e;
+			sources = Arrays.copyOf(sources, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+			edgeSupport = Arrays.copyOf(edgeSupport, capacity);
+			edgeCounts = Arrays.copyOf(edgeCounts, capacity);
+			edgeTrees = Arrays.copyOf(edgeTrees, capacity);
+		}
+		sources[e] = u;
+		targets[e] = v;
+		edgeTrees[e] = new CompressedIntSet();
+		edgeKeys[slot] = key;
+		edgeSlots[slot] = e;
+		if (2 * numEdges > edgeSlots.length) {
+			long[] keys = edgeKeys;
+			int[] slots = edgeSlots;
+			edgeKeys = new long[2 * keys.length];
+			edgeSlots = newSlots(2 * keys.length);
+			for (int s = 0; s < keys.length; s++) {
+				if (slots[s] != -1) {
+					int t = hashEdge(keys[s]) & (edgeSlots.length - 1);
+					while (edgeSlots[t] != -1) {
+						t = (t + 1) & (edgeSlots.length - 1);
+					}
+					edgeKeys[t] = keys[s];
+					edgeSlots[t] = slots[s];
+				}
+			}
+		}
+		return e;
+	}
+
+	// ---- accessors ----
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/** Returns the node of the first tree in which graph node u was seen */
+	public PHYNode getNode(int u) {
+		return nodes[u];
+	}
+
+	/** Returns the total weight of the trees containing node u */
+	public double getNodeSupport(int u) {
+		return nodeSupport[u];
+	}
+
+	public int getNumEdges() {
+		return numEdges;
+	}
+
+	public int getSource(int e) {
+		return sources[e];
+	}
+
+	public int getTarget(int e) {
+		return targets[e];
+	}
+
+	/** Returns the total weight of the trees containing edge e */
+	public double getSupport(int e) {
+		return edgeSupport[e];
+	}
+
+	/** Returns the number of trees containing edge e */
+	public int getCount(int e) {
+		return edgeCounts[e];
+	}
+
+	/** Returns the numbers of the trees containing edge e */
+	public CompressedIntSet getTreeNumbers(int e) {
+		return edgeTrees[e];
+	}
+
+	// ---- construction ----
+
+	/**
+	 * Builds the graph of a list of trees, numbered by position, with up to parallelism threads
+	 */
+	public static TreeAlignmentGraph build(final List<PHYTree> trees, int parallelism) {
+		return build(trees.size(), parallelism, new TreeSource() {
+			public void add(TreeAlignmentGraph g, int t) {
+				g.addTree(trees.get(t), t);
+			}
+		});
+	}
+
+	/**
+	 * Builds the graph of an ensemble file with up to parallelism threads, streaming its trees as views
+	 */
+	public static TreeAlignmentGraph build(final TreeEnsembleReader reader, int parallelism) {
+		return build(reader.getNumTrees(), parallelism, new TreeSource() {
+			public void add(TreeAlignmentGraph g, int t) {
+				g.addTree(reader.getTree(t));
+			}
+		});
+	}
+
+	private interface TreeSource {
+		void add(TreeAlignmentGraph g, int t);
+	}
+
+	private static TreeAlignmentGraph build(int numTrees, int parallelism, TreeSource source) {
+		if (parallelism <= 1) {
+			TreeAlignmentGraph g = new TreeAlignmentGraph();
+			for (int t = 0; t < numTrees; t++) {
+				source.add(g, t);
+			}
+			return g;
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.invoke(new BuildTask(0, numTrees, source));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Builds the partial graph of trees start..end-1, merging the graphs of the two halves
+	 */
+	private static class BuildTask extends RecursiveTask<TreeAlignmentGraph> {
+		private static final long serialVersionUID = 1L;
+		private final int start;
+		private final int end;
+		private final TreeSource source;
+
+		BuildTask(int start, int end, TreeSource source) {
+			this.start = start;
+			this.end = end;
+			this.source = source;
+		}
+
+		protected TreeAlignmentGraph compute() {
+			if (end - start <= MIN_TASK_SIZE) {
+				TreeAlignmentGraph g = new TreeAlignmentGraph();
+				for (int t = start; t < end; t++) {
+					source.add(g, t);
+				}
+				return g;
+			}
+			int mid = (start + end) >>> 1;
+			BuildTask right = new BuildTask(mid, end, source);
+			right.fork();
+			TreeAlignmentGraph g = new BuildTask(start, mid, source).compute();
+			g.merge(right.join());
+			return g;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+
+/**
+ * Layout of the binary tree ensemble file, version 1. All values are little-endian.
+ *
+ * <pre>
+ * header (64 bytes)
+ *   int   magic            'L','T','E','F'
+ *   int   version
+ *   int   numTrees
+ *   int   numNodes         entries in the node dictionary
+ *   int   numProfiles      entries in the sample profile dictionary
+ *   int   numSNVs          entries in the SNV dictionary
+ *   long  dictionaryOffset
+ *   long  indexOffset
+ *   (reserved, zero)
+ * tree records, from offset 64, one per tree
+ *   int[numNodes] node     dictionary index of each node, in pre-order (the root first)
+ *   int[numNodes] parent   position of the parent of each node in this record, -1 for the root
+ * dictionary, at dictionaryOffset
+ *   numProfiles x (int tagOffset, int tagLength)              into the string heap
+ *   numNodes    x (int nodeId, int kind, int value, int snvStart, int snvCount)
+ *                 kind is ROOT, LEAF (value = sample id) or GROUP (value = profile index)
+ *   numSNVs     x (int lineId, int textOffset, int textLength) into the string heap
+ *   int stringHeapLength, followed by the UTF-8 string heap
+ * tree index, at indexOffset
+ *   numTrees    x (long recordOffset, int numNodes, int reserved, double weight)
+ * </pre>
+ *
+ * Nodes are shared across trees by node id, so each mutation group and its SNVs are stored once.
+ * The text of an SNV is its input line; SNVs read back take the profile of their group.
+ */
+public final class TreeEnsembleFormat {
+	public static final int MAGIC = 'L' | ('T' << 8) | ('E' << 16) | ('F' << 24);
+	public static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 64;
+	static final int PROFILE_ENTRY_SIZE = 8;
+	static final int NODE_ENTRY_SIZE = 20;
+	static final int SNV_ENTRY_SIZE = 12;
+	static final int INDEX_ENTRY_SIZE = 24;
+
+	static final int ROOT = 0;
+	static final int LEAF = 1;
+	static final int GROUP = 2;
+
+	private TreeEnsembleFormat() {
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Memory-mapped reader of the binary tree ensemble format (see TreeEnsembleFormat).
+ *
+ * Only the dictionary is decoded up front, into one PHYNode per distinct node shared by all trees.
+ * Tree records stay in the mapped file and getTree(i) returns a view on them without copying,
+ * so trees can be streamed or sampled from ensembles much larger than the heap.
+ * Files over 2GB are mapped in several segments, each holding whole tree records.
+ * Views are read-only and may be used from several threads.
+ */
+public class TreeEnsembleReader implements Closeable {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+	private final FileChannel channel;
+	private final int numTrees;
+	private final PHYNode[] nodes; // dictionary
+	private final ByteBuffer index;
+	private final long[] segmentStarts;
+	private final ByteBuffer[] segments;
+
+	public TreeEnsembleReader(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < TreeEnsembleFormat.HEADER_SIZE) {
+				throw new IOException("Not a tree ensemble file: " + path);
+			}
+			ByteBuffer header = map(0, TreeEnsembleFormat.HEADER_SIZE);
+			if (header.getInt(0) != TreeEnsembleFormat.MAGIC) {
+				throw new IOException("Not a tree ensemble file: " + path);
+			}
+			int version = header.getInt(4);
+			if (version > TreeEnsembleFormat.VERSION) {
+				throw new IOException("Unsupported tree ensemble version " + version + ": " + path);
+			}
+			numTrees = header.getInt(8);
+			int numNodes = header.getInt(12);
+			int numProfiles = header.getInt(16);
+			int numSNVs = header.getInt(20);
+			long dictionaryOffset = header.getLong(24);
+			long indexOffset = header.getLong(32);
+
+			nodes = readDictionary(map(dictionaryOffset, indexOffset - dictionaryOffset), numNodes, numProfiles, numSNVs);
+			index = map(indexOffset, (long) numTrees * TreeEnsembleFormat.INDEX_ENTRY_SIZE);
+
+			// segments of whole tree records
+			ArrayList<Long> starts = new ArrayList<Long>();
+			ArrayList<Long> ends = new ArrayList<Long>();
+			for (int t = 0; t < numTrees; t++) {
+				long start = getRecordOffset(t);
+				long end = start + 8L * getRecordSize(t);
+				int last = starts.size() - 1;
+				if (last == -1 || end - starts.get(last) > MAX_SEGMENT_SIZE) {
+					starts.add(start);
+					ends.add(end);
+				} else {
+					ends.set(last, Math.max(ends.get(last), end));
+				}
+			}
+			segmentStarts = new long[starts.size()];
+			segments = new ByteBuffer[starts.size()];
+			for (int s = 0; s < segments.length; s++) {
+				segmentStarts[s] = starts.get(s);
+				segments[s] = map(starts.get(s), ends.get(s) - starts.get(s));
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private MappedByteBuffer map(long offset, long length) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	private static PHYNode[] readDictionary(ByteBuffer dictionary, int numNodes, int numProfiles, int numSNVs) {
+		int profilesAt = 0;
+		int nodesAt = profilesAt + numProfiles * TreeEnsembleFormat.PROFILE_ENTRY_SIZE;
+		int snvsAt = nodesAt + numNodes * TreeEnsembleFormat.NODE_ENTRY_SIZE;
+		int heapAt = snvsAt + numSNVs * TreeEnsembleFormat.SNV_ENTRY_SIZE + 4;
+
+		SampleProfile[] profiles = new SampleProfile[numProfiles];
+		for (int p = 0; p < numProfiles; p++) {
+			int at = profilesAt + p * TreeEnsembleFormat.PROFILE_ENTRY_SIZE;
+			profiles[p] = SampleProfile.get(readString(dictionary, heapAt + dictionary.getInt(at), dictionary.getInt(at + 4)));
+		}
+		PHYNode[] nodes = new PHYNode[numNodes];
+		for (int i = 0; i < numNodes; i++) {
+			int at = nodesAt + i * TreeEnsembleFormat.NODE_ENTRY_SIZE;
+			int nodeId = dictionary.getInt(at);
+			int kind = dictionary.getInt(at + 4);
+			int value = dictionary.getInt(at + 8);
+			if (kind == TreeEnsembleFormat.ROOT) {
+				nodes[i] = new PHYNode(nodeId);
+			} else if (kind == TreeEnsembleFormat.LEAF) {
+				nodes[i] = new PHYNode(value, nodeId);
+			} else {
+				int snvStart = dictionary.getInt(at + 12);
+				int snvCount = dictionary.getInt(at + 16);
+				String tag = profiles[value].getTag();
+				ArrayList<SNVEntry> snvs = new ArrayList<SNVEntry>(snvCount);
+				for (int k = snvStart; k < snvStart + snvCount; k++) {
+					int s = snvsAt + k * TreeEnsembleFormat.SNV_ENTRY_SIZE;
+					String line = readString(dictionary, heapAt + dictionary.getInt(s + 4), dictionary.getInt(s + 8));
+					// the SNVs of a group have its profile
+					SNVEntry snv = new SNVEntry(line, dictionary.getInt(s));
+					snv.updateGroup(tag);
+					snvs.add(snv);
+				}
+				nodes[i] = new PHYNode(profiles[value], snvs, nodeId);
+			}
+		}
+		return nodes;
+	}
+
+	private static String readString(ByteBuffer buffer, int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	public int getNumTrees() {
+		return numTrees;
+	}
+
+	/**
+	 * Returns the distinct nodes of the ensemble, shared by all tree views
+	 */
+	public List<PHYNode> getNodes() {
+		return Arrays.asList(nodes);
+	}
+
+	PHYNode getNode(int dictionaryIndex) {
+		return nodes[dictionaryIndex];
+	}
+
+	private long getRecordOffset(int t) {
+		return index.getLong(t * TreeEnsembleFormat.INDEX_ENTRY_SIZE);
+	}
+
+	private int getRecordSize(int t) {
+		return index.getInt(t * TreeEnsembleFormat.INDEX_ENTRY_SIZE + 8);
+	}
+
+	public double getWeight(int t) {
+		return index.getDouble(t * TreeEnsembleFormat.INDEX_ENTRY_SIZE + 16);
+	}
+
+	/**
+	 * Returns a zero-copy view of tree t
+	 */
+	public TreeView getTree(int t) {
+		if (t < 0 || t >= numTrees) {
+			throw new IndexOutOfBoundsException("Tree " + t + " of " + numTrees);
+		}
+		long offset = getRecordOffset(t);
+		int s = Arrays.binarySearch(segmentStarts, offset);
+		if (s < 0) {
+			s = -s - 2;
+		}
+		return new TreeView(this, t, segments[s], (int) (offset - segmentStarts[s]), getRecordSize(t), getWeight(t));
+	}
+
+	/**
+	 * Reads tree t into a PHYTree, sharing the dictionary nodes
+	 */
+	public PHYTree readTree(int t) {
+		return getTree(t).toTree();
+	}
+
+	/**
+	 * Reads all trees; intended for ensembles that fit in memory
+	 */
+	public ArrayList<PHYTree> readTrees() {
+		ArrayList<PHYTree> trees = new ArrayList<PHYTree>(numTrees);
+		for (int t = 0; t < numTrees; t++) {
+			trees.add(readTree(t));
+		}
+		return trees;
+	}
+
+	/**
+	 * Reads the distinct trees of the ensemble, in order of first occurrence.
+	 * Copies of a topology are recognized from the mapped records without being read into
+	 * PHYTrees; the weight of each distinct tree is the sum of the weights of its copies.
+	 */
+	public ArrayList<PHYTree> readDistinctTrees() {
+		HashMap<CanonicalTree, PHYTree> distinct = new HashMap<CanonicalTree, PHYTree>();
+		ArrayList<PHYTree> trees = new ArrayList<PHYTree>();
+		for (int t = 0; t < numTrees; t++) {
+			TreeView view = getTree(t);
+			CanonicalTree key = new CanonicalTree(view);
+			PHYTree first = distinct.get(key);
+			if (first == null) {
+				first = view.toTree();
+				distinct.put(key, first);
+				trees.add(first);
+			} else {
+				first.setWeight(first.getWeight() + view.getWeight());
+			}
+		}
+		return trees;
+	}
+
+	/**
+	 * Returns a map from node id to dictionary node
+	 */
+	public HashMap<Integer, PHYNode> getNodesById() {
+		HashMap<Integer, PHYNode> byId = new HashMap<Integer, PHYNode>();
+		for (PHYNode n : nodes) {
+			byId.put(n.getNodeId(), n);
+		}
+		return byId;
+	}
+
+	/**
+	 * Closes the file. Mapped segments are released when the views referring to them are collected.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Writes a tree ensemble in the binary format described in TreeEnsembleFormat.
+ *
+ * Trees are streamed to the file as they are added; the dictionary of nodes, sample profiles
+ * and SNVs and the tree index are kept in memory and written on close, after which the header
+ * is filled in. Only the nodes reachable from the root of a tree are written.
+ */
+public class TreeEnsembleWriter implements Closeable {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private long position;
+
+	// dictionary
+	private final HashMap<Integer, Integer> nodeIndex = new HashMap<Integer, Integer>();
+	private final ArrayList<PHYNode> nodes = new ArrayList<PHYNode>();
+	private final HashMap<String, Integer> profileIndex = new HashMap<String, Integer>();
+	private final ArrayList<String> profiles = new ArrayList<String>();
+	private int numSNVs;
+
+	// tree index
+	private long[] recordOffsets = new long[16];
+	private int[] recordSizes = new int[16];
+	private double[] weights = new double[16];
+	private int numTrees;
+
+	// scratch, indexed by position in the record or by node id
+	private int[] order = new int[0];
+	private int[] parents = new int[0];
+	private int[] stack = new int[0];
+	private int[] positionOf = new int[0];
+
+	public TreeEnsembleWriter(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		// header placeholder
+		for (int i = 0; i < TreeEnsembleFormat.HEADER_SIZE; i++) {
+			buffer.put((byte) 0);
+		}
+		position = TreeEnsembleFormat.HEADER_SIZE;
+	}
+
+	/**
+	 * Writes a whole ensemble to a file
+	 */
+	public static void write(Path path, List<PHYTree> trees) throws IOException {
+		TreeEnsembleWriter writer = new TreeEnsembleWriter(path);
+		try {
+			for (PHYTree tree : trees) {
+				writer.addTree(tree);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	public int getNumTrees() {
+		return numTrees;
+	}
+
+	/**
+	 * Appends a tree, with its weight, from its only parentless node
+	 * @throws IllegalArgumentException if the nodes do not form a single tree
+	 */
+	public void addTree(PHYTree tree) throws IOException {
+		int capacity = tree.getIdCapacity();
+		if (order.length < capacity) {
+			order = new int[capacity];
+			parents = new int[capacity];
+			stack = new int[capacity];
+			positionOf = new int[capacity];
+		}
+
+		// pre-order traversal, recording the position of each node's parent
+		int size = 0;
+		int root = tree.getRootId();
+		if (root != -1) {
+			int top = 0;
+			stack[top++] = root;
+			while (top > 0) {
+				int v = stack[--top];
+				positionOf[v] = size;
+				order[size] = v;
+				parents[size] = (v == root ? -1 : positionOf[tree.getParentId(v)]);
+				size++;
+				// push the children in reverse so that the first child is visited first
+				int first = top;
+				for (int w = tree.getFirstChildId(v); w != -1; w = tree.getNextSiblingId(w)) {
+					stack[top++] = w;
+				}
+				for (int i = first, j = top - 1; i < j; i++, j--) {
+					int tmp = stack[i];
+					stack[i] = stack[j];
+					stack[j] = tmp;
+				}
+			}
+		}
+
+		ensureIndexCapacity();
+		recordOffsets[numTrees] = position;
+		recordSizes[numTrees] = size;
+		weights[numTrees] = tree.getWeight();
+		numTrees++;
+		for (int i = 0; i < size; i++) {
+			putInt(getNodeIndex(tree.getNode(order[i])));
+		}
+		for (int i = 0; i < size; i++) {
+			putInt(parents[i]);
+		}
+	}
+
+	private void ensureIndexCapacity() {
+		if (numTrees == recordOffsets.length) {
+			int capacity = 2 * numTrees;
+			recordOffsets = Arrays.copyOf(recordOffsets, capacity);
+			recordSizes = Arrays.copyOf(recordSizes, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+		}
+	}
+
+	private int getNodeIndex(PHYNode n) {
+		Integer index = nodeIndex.get(n.getNodeId());
+		if (index == null) {
+			index = nodes.size();
+			nodeIndex.put(n.getNodeId(), index);
+			nodes.add(n);
+			if (!n.isRoot() && !n.isLeaf()) {
+				String tag = n.getSampleProfile().getTag();
+				if (!profileIndex.containsKey(tag)) {
+					profileIndex.put(tag, profiles.size());
+					profiles.add(tag);
+				}
+				numSNVs += n.getSize();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the dictionary and the tree index and fills in the header
+	 */
+	public void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			// string heap: profile tags, then SNV lines
+			ByteArrayOutputStream heap = new ByteArrayOutputStream();
+			long dictionaryOffset = position;
+			for (String tag : profiles) {
+				byte[] bytes = tag.getBytes(UTF8);
+				putInt(heap.size());
+				putInt(bytes.length);
+				heap.write(bytes);
+			}
+			int snvStart = 0;
+			for (PHYNode n : nodes) {
+				putInt(n.getNodeId());
+				if (n.isRoot()) {
+					putInt(TreeEnsembleFormat.ROOT);
+					putInt(-1);
+					putInt(0);
+					putInt(0);
+				} else if (n.isLeaf()) {
+					putInt(TreeEnsembleFormat.LEAF);
+					putInt(n.getLeafSampleId());
+					putInt(0);
+					putInt(0);
+				} else {
+					putInt(TreeEnsembleFormat.GROUP);
+					putInt(profileIndex.get(n.getSampleProfile().getTag()));
+					putInt(snvStart);
+					putInt(n.getSize());
+					snvStart += n.getSize();
+				}
+			}
+			for (PHYNode n : nodes) {
+				if (n.isRoot() || n.isLeaf() || n.getSNVs() == null) {
+					continue;
+				}
+				for (SNVEntry snv : n.getSNVs()) {
+					byte[] bytes = String.valueOf(snv).getBytes(UTF8);
+					putInt(snv.getId());
+					putInt(heap.size());
+					putInt(bytes.length);
+					heap.write(bytes);
+				}
+			}
+			putInt(heap.size());
+			byte[] bytes = heap.toByteArray();
+			for (int off = 0; off < bytes.length; ) {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				int length = Math.min(buffer.remaining(), bytes.length - off);
+				buffer.put(bytes, off, length);
+				off += length;
+				position += length;
+			}
+			// align the index
+			while (position % 8 != 0) {
+				putByte((byte) 0);
+			}
+
+			long indexOffset = position;
+			for (int t = 0; t < numTrees; t++) {
+				putLong(recordOffsets[t]);
+				putInt(recordSizes[t]);
+				putInt(0);
+				putLong(Double.doubleToLongBits(weights[t]));
+			}
+			flush();
+
+			ByteBuffer header = ByteBuffer.allocate(TreeEnsembleFormat.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(TreeEnsembleFormat.MAGIC);
+			header.putInt(TreeEnsembleFormat.VERSION);
+			header.putInt(numTrees);
+			header.putInt(nodes.size());
+			header.putInt(profiles.size());
+			header.putInt(numSNVs);
+			header.putLong(dictionaryOffset);
+			header.putLong(indexOffset);
+			header.position(0);
+			long at = 0;
+			while (header.hasRemaining()) {
+				at += channel.write(header, at);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void putByte(byte b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put(b);
+		position++;
+	}
+
+	private void putInt(int x) throws IOException {
+		if (buffer.remaining() < 4) {
+			flush();
+		}
+		buffer.putInt(x);
+		position += 4;
+	}
+
+	private void putLong(long x) throws IOException {
+		if (buffer.remaining() < 8) {
+			flush();
+		}
+		buffer.putLong(x);
+		position += 8;
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
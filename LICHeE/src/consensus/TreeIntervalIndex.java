@@ -0,0 +1,184 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.util.Arrays;
+
+
+/**
+ * Euler tour index of a PHYTree answering ancestry, depth and lowest common ancestor queries
+ * in constant time.
+ *
+ * Every node gets the interval [enter, exit] of the pre-order numbers of its subtree, so w is
+ * a descendant of v iff its enter number lies inside the interval of v. The lowest common
+ * ancestor of v and w is the shallowest node visited between their first occurrences in the
+ * Euler tour, found with a sparse table of range minima over the tour.
+ *
+ * Arrays are indexed by node id, like the tree itself.
+ * The index is a snapshot: the tree rebuilds it lazily after its edges change.
+ * If the edges contain a cycle, the index is marked invalid and the tree falls back
+ * to walking parent links.
+ */
+public class TreeIntervalIndex {
+	private final PHYTree tree;
+	private final int[] enter; // pre-order number, -1 if the id is not known to the tree
+	private final int[] exit; // largest pre-order number in the subtree
+	private final int[] depth;
+	private final int[] component; // root of the tree containing the node
+	private final int[] first; // first position in the Euler tour
+	private int[][] minima; // minima[k][i]: shallowest tour entry in positions i..i+2^k-1
+	private boolean valid = true;
+
+	/**
+	 * Indexes the tree, starting from its nodes without parents: tree nodes in the order
+	 * they were added, then nodes only known from edges
+	 */
+	public TreeIntervalIndex(PHYTree tree) {
+		this.tree = tree;
+		int n = tree.getIdCapacity();
+		enter = new int[n];
+		exit = new int[n];
+		depth = new int[n];
+		component = new int[n];
+		first = new int[n];
+		Arrays.fill(enter, -1);
+		int known = 0;
+		for (int v = 0; v < n; v++) {
+			if (tree.getNode(v) != null) {
+				known++;
+			}
+		}
+
+		int[] tour = new int[Math.max(2 * known - 1, 1)];
+		int tourSize = 0;
+		int visited = 0;
+		int[] stack = new int[Math.max(known, 1)];
+		int[] nextChild = new int[n];
+		// roots: tree nodes without parent in the order they were added, then other known ids
+		int[] roots = new int[known];
+		int numRoots = 0;
+		boolean[] isRoot = new boolean[n];
+		for (int v = tree.getFirstNodeId(); v != -1; v = tree.getNextNodeId(v)) {
+			if (tree.getParentId(v) == -1) {
+				isRoot[v] = true;
+				roots[numRoots++] = v;
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			if (tree.getNode(v) != null && tree.getParentId(v) == -1 && !isRoot[v]) {
+				roots[numRoots++] = v;
+			}
+		}
+
+		for (int k = 0; k < numRoots; k++) {
+			int root = roots[k];
+			int top = 0;
+			stack[top++] = root;
+			enter[root] = visited++;
+			first[root] = tourSize;
+			tour[tourSize++] = root;
+			component[root] = root;
+			nextChild[root] = tree.getFirstChildId(root);
+			while (top > 0) {
+				int v = stack[top - 1];
+				int w = nextChild[v];
+				if (w != -1) {
+					nextChild[v] = tree.getNextSiblingId(w);
+					enter[w] = visited++;
+					depth[w] = depth[v] + 1;
+					component[w] = root;
+					first[w] = tourSize;
+					tour[tourSize++] = w;
+					nextChild[w] = tree.getFirstChildId(w);
+					stack[top++] = w;
+				} else {
+					exit[v] = visited - 1;
+					top--;
+					if (top > 0) {
+						tour[tourSize++] = stack[top - 1];
+					}
+				}
+			}
+		}
+		if (visited != known) {
+			// nodes on a cycle
+			valid = false;
+			return;
+		}
+
+		// sparse table over the tour depths
+		int levels = 1;
+		while ((1 << levels) <= tourSize) {
+			levels++;
+		}
+		minima = new int[levels][];
+		minima[0] = new int[tourSize];
+		System.arraycopy(tour, 0, minima[0], 0, tourSize);
+		for (int k = 1; k < levels; k++) {
+			int half = 1 << (k - 1);
+			int size = tourSize - (1 << k) + 1;
+			minima[k] = new int[size];
+			for (int i = 0; i < size; i++) {
+				int a = minima[k - 1][i];
+				int b = minima[k - 1][i + half];
+				minima[k][i] = depth[a] <= depth[b] ? a : b;
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of v, or -1 if v is not known to the tree
+	 */
+	private int indexOf(PHYNode v) {
+		int id = v.getNodeId();
+		return id >= 0 && id < enter.length ? (enter[id] == -1 ? -1 : id) : -1;
+	}
+
+	/**
+	 * Returns false if the tree edges contain a cycle, in which case no query may be made
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * Returns true if w is a (proper) descendant of v
+	 */
+	public boolean isDescendent(PHYNode v, PHYNode w) {
+		int i = indexOf(v);
+		int j = indexOf(w);
+		if (i == -1 || j == -1) {
+			return false;
+		}
+		return enter[i] < enter[j] && enter[j] <= exit[i];
+	}
+
+	/**
+	 * Returns the number of edges between v and the root of its tree, or -1 if v is not in the tree
+	 */
+	public int getDepth(PHYNode v) {
+		int i = indexOf(v);
+		return i == -1 ? -1 : depth[i];
+	}
+
+	/**
+	 * Returns the lowest common ancestor of v and w (which may be v or w itself),
+	 * or null if they are not in the same tree
+	 */
+	public PHYNode getLCA(PHYNode v, PHYNode w) {
+		int i = indexOf(v);
+		int j = indexOf(w);
+		if (i == -1 || j == -1 || component[i] != component[j]) {
+			return null;
+		}
+		int lo = Math.min(first[i], first[j]);
+		int hi = Math.max(first[i], first[j]);
+		int k = 31 - Integer.numberOfLeadingZeros(hi - lo + 1);
+		int a = minima[k][lo];
+		int b = minima[k][hi - (1 << k) + 1];
+		return tree.getNode(depth[a] <= depth[b] ? a : b);
+	}
+}
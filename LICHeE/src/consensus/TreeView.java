@@ -0,0 +1,81 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Read-only view of one tree record of a mapped tree ensemble file.
+ *
+ * Nodes are addressed by their position 0..getNumNodes()-1 in the record, which is a pre-order:
+ * position 0 is the root and the parent of every other node comes before it.
+ * Nothing is copied out of the file until a node or a PHYTree is requested.
+ */
+public class TreeView {
+	private final TreeEnsembleReader reader;
+	private final int treeNumber;
+	private final ByteBuffer buffer;
+	private final int nodesAt;
+	private final int parentsAt;
+	private final int numNodes;
+	private final double weight;
+
+	TreeView(TreeEnsembleReader reader, int treeNumber, ByteBuffer buffer, int offset, int numNodes, double weight) {
+		this.reader = reader;
+		this.treeNumber = treeNumber;
+		this.buffer = buffer;
+		this.nodesAt = offset;
+		this.parentsAt = offset + 4 * numNodes;
+		this.numNodes = numNodes;
+		this.weight = weight;
+	}
+
+	/** Returns the number of the tree in its ensemble */
+	public int getTreeNumber() {
+		return treeNumber;
+	}
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	public double getWeight() {
+		return weight;
+	}
+
+	/** Returns the dictionary index of the node at position i */
+	public int getNodeIndex(int i) {
+		return buffer.getInt(nodesAt + 4 * i);
+	}
+
+	/** Returns the node at position i, shared with all other views of the ensemble */
+	public PHYNode getNode(int i) {
+		return reader.getNode(getNodeIndex(i));
+	}
+
+	/** Returns the position of the parent of the node at position i, or -1 for the root */
+	public int getParent(int i) {
+		return buffer.getInt(parentsAt + 4 * i);
+	}
+
+	/**
+	 * Copies the tree into a PHYTree, keeping the order of nodes and children
+	 */
+	public PHYTree toTree() {
+		PHYTree tree = new PHYTree();
+		tree.setWeight(weight);
+		for (int i = 0; i < numNodes; i++) {
+			PHYNode n = getNode(i);
+			tree.addNode(n);
+			int p = getParent(i);
+			if (p != -1) {
+				tree.addEdge(getNode(p), n);
+			}
+		}
+		return tree;
+	}
+}
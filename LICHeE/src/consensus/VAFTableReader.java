@@ -0,0 +1,380 @@
+/*
+ * TODO(Reyna) license
+*/
+
+
+package consensus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Reads the tab-separated multi-sample VAF input format into an SNVTable:
+ *
+ * <pre>
+ * #chrom  pos  DESC  Normal  R1  R2 ...
+ * chr1    23191579  desc1  0  0.299479167  0.09978308 ...
+ * </pre>
+ *
+ * The header names the samples (every column after DESC, the normal sample included); without
+ * a header the number of samples is taken from the first line. When the header has several
+ * columns between pos and a column named Normal (e.g. ref, mut and gene), they are all kept
+ * as the description, tabs included. Other lines starting with '#' and empty lines are skipped.
+ * The line id of an SNV is its index among the SNV lines.
+ *
+ * The file is memory-mapped and split into chunks at line boundaries that are parsed in parallel.
+ * Fields are parsed directly from the mapped bytes, without building a String per field,
+ * into one table per chunk; the chunk tables are then concatenated in file order.
+ */
+public class VAFTableReader {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+	private static final long MAX_CHUNK_SIZE = 1L << 30;
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for(int i = 1; i < POW10.length; i++) {
+			POW10[i] = 10 * POW10[i - 1];
+		}
+	}
+
+	private final Path path;
+	private final FileChannel channel;
+	private final long size;
+	private String[] sampleNames;
+	private int numSamples;
+	private int descriptionColumns = 1;
+	private long bodyStart;
+
+	private VAFTableReader(Path path, FileChannel channel) throws IOException {
+		this.path = path;
+		this.channel = channel;
+		this.size = channel.size();
+	}
+
+	/**
+	 * Reads the file using all available processors
+	 */
+	public static SNVTable read(Path path) throws IOException {
+		return read(path, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Reads the file with up to parallelism threads
+	 */
+	public static SNVTable read(Path path, int parallelism) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new VAFTableReader(path, channel).read(parallelism);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private SNVTable read(int parallelism) throws IOException {
+		readHeader();
+		long body = size - bodyStart;
+		int numChunks = 1;
+		if(parallelism > 1) {
+			numChunks = (int) Math.max(1, Math.min(4L * parallelism, body / MIN_CHUNK_SIZE));
+		}
+		numChunks = (int) Math.max(numChunks, (body + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+
+		ArrayList<SNVTable> chunks = new ArrayList<SNVTable>(numChunks);
+		if(numChunks == 1) {
+			chunks.add(parseChunk(bodyStart, size));
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				ArrayList<Future<SNVTable>> tasks = new ArrayList<Future<SNVTable>>(numChunks);
+				for(int k = 0; k < numChunks; k++) {
+					final long start = bodyStart + body * k / numChunks;
+					final long end = bodyStart + body * (k + 1) / numChunks;
+					tasks.add(pool.submit(new Callable<SNVTable>() {
+						public SNVTable call() throws IOException {
+							return parseChunk(start, end);
+						}
+					}));
+				}
+				for(Future<SNVTable> task : tasks) {
+					chunks.add(task.get());
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading " + path, e);
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException("Failed to read " + path, e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		long totalRows = 0;
+		long lineBytes = 0;
+		for(SNVTable chunk : chunks) {
+			totalRows += chunk.size();
+			lineBytes += chunk.getLineBytes();
+		}
+		if(totalRows >= SNVTable.MAX_ARRAY_SIZE || totalRows * numSamples > SNVTable.MAX_ARRAY_SIZE
+				|| lineBytes > SNVTable.MAX_ARRAY_SIZE) {
+			throw new IOException("Too large for one SNV table: " + path + " has " + totalRows + " SNVs of "
+					+ numSamples + " samples in " + lineBytes + " bytes, at most " + SNVTable.MAX_ARRAY_SIZE
+					+ " VAFs and bytes fit");
+		}
+		SNVTable table = new SNVTable(numSamples, (int) totalRows);
+		table.setSampleNames(sampleNames);
+		int rows = 0;
+		for(SNVTable chunk : chunks) {
+			table.addAll(chunk, rows);
+			rows += chunk.size();
+		}
+		return table;
+	}
+
+	/**
+	 * Reads the sample names from the header line, or the number of samples from the first line
+	 */
+	private void readHeader() throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+		int end = 0;
+		while(end < buffer.limit() && buffer.get(end) != '\n') {
+			end++;
+		}
+		int lineEnd = end;
+		if(lineEnd > 0 && buffer.get(lineEnd - 1) == '\r') {
+			lineEnd--;
+		}
+		byte[] line = new byte[lineEnd];
+		for(int i = 0; i < lineEnd; i++) {
+			line[i] = buffer.get(i);
+		}
+		String[] fields = new String(line, UTF8).split("\t");
+		if(fields.length < 4) {
+			throw new IOException("Expected chromosome, position, description and VAF columns in " + path);
+		}
+		if(line.length > 0 && line[0] == '#') {
+			for(int i = 4; i < fields.length; i++) {
+				if(fields[i].equalsIgnoreCase("normal")) {
+					descriptionColumns = i - 2;
+					break;
+				}
+			}
+			numSamples = fields.length - 2 - descriptionColumns;
+			sampleNames = new String[numSamples];
+			System.arraycopy(fields, 2 + descriptionColumns, sampleNames, 0, numSamples);
+			bodyStart = Math.min(end + 1, size);
+		} else {
+			numSamples = fields.length - 3;
+			bodyStart = 0;
+		}
+	}
+
+	/**
+	 * Parses the lines starting in [start, end); the last one may extend past end
+	 */
+	private SNVTable parseChunk(long start, long end) throws IOException {
+		// map from the byte before start, to know whether start begins a line
+		long from = Math.max(start - 1, 0);
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(size - from, Integer.MAX_VALUE));
+		int limit = buffer.limit();
+		int stop = (int) (end - from);
+		int i = (int) (start - from);
+		if(start > 0 && buffer.get(i - 1) != '\n') {
+			while(i < limit && buffer.get(i) != '\n') {
+				i++;
+			}
+			i++;
+		}
+
+		SNVTable table = new SNVTable(numSamples, (int) Math.max(16, (end - start) / (16 + 8 * numSamples)));
+		float[] vaf = new float[numSamples];
+		byte[] scratch = new byte[256];
+		while(i < stop && i < limit) {
+			int lineStart = i;
+			int lineEnd = i;
+			while(lineEnd < limit && buffer.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			i = lineEnd + 1;
+			if(lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			if(lineEnd == lineStart || buffer.get(lineStart) == '#') {
+				continue;
+			}
+
+			// chromosome
+			int f = lineStart;
+			int t = nextTab(buffer, f, lineEnd);
+			if(t - f > scratch.length) {
+				scratch = new byte[2 * (t - f)];
+			}
+			for(int k = f; k < t; k++) {
+				scratch[k - f] = buffer.get(k);
+			}
+			int chromosome = SNVTable.getStandardChromosomeCode(scratch, 0, t - f);
+			if(chromosome == -1) {
+				chromosome = table.getChromosomeCode(new String(scratch, 0, t - f, UTF8));
+			}
+
+			// position
+			f = t + 1;
+			t = nextTab(buffer, f, lineEnd);
+			int position = parseInt(buffer, f, t, from + lineStart);
+
+			// description
+			int descriptionStart = t + 1;
+			for(int k = 0; k < descriptionColumns; k++) {
+				f = t + 1;
+				if(f > lineEnd) {
+					throw malformed(from + lineStart);
+				}
+				t = nextTab(buffer, f, lineEnd);
+			}
+			int descriptionEnd = t;
+
+			// VAFs
+			for(int s = 0; s < numSamples; s++) {
+				f = t + 1;
+				if(f > lineEnd) {
+					throw malformed(from + lineStart);
+				}
+				t = nextTab(buffer, f, lineEnd);
+				vaf[s] = parseFloat(buffer, f, t, from + lineStart);
+			}
+
+			// the line as read, for SNVEntry.toString()
+			int length = lineEnd - lineStart;
+			if(length > scratch.length) {
+				scratch = new byte[2 * length];
+			}
+			for(int k = 0; k < length; k++) {
+				scratch[k] = buffer.get(lineStart + k);
+			}
+			table.addRow(table.size(), chromosome, position, scratch, 0, length, descriptionStart - lineStart,
+					descriptionEnd - descriptionStart, vaf, 0);
+		}
+		return table;
+	}
+
+	private static int nextTab(ByteBuffer buffer, int from, int lineEnd) {
+		while(from < lineEnd && buffer.get(from) != '\t') {
+			from++;
+		}
+		return from;
+	}
+
+	private IOException malformed(long offset) {
+		return new IOException("Malformed line at byte " + offset + " of " + path
+				+ ": expected chromosome, position, description and " + numSamples + " VAFs");
+	}
+
+	private int parseInt(ByteBuffer buffer, int from, int to, long lineOffset) throws IOException {
+		if(from >= to) {
+			throw malformed(lineOffset);
+		}
+		long value = 0;
+		for(int i = from; i < to; i++) {
+			int d = buffer.get(i) - '0';
+			if(d < 0 || d > 9 || value > Integer.MAX_VALUE) {
+				throw malformed(lineOffset);
+			}
+			value = 10 * value + d;
+		}
+		if(value > Integer.MAX_VALUE) {
+			throw malformed(lineOffset);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Parses a decimal number with optional sign, fraction and exponent;
+	 * anything else (NaN, Infinity, hexadecimal) goes through Float.parseFloat
+	 */
+	private float parseFloat(ByteBuffer buffer, int from, int to, long lineOffset) throws IOException {
+		int i = from;
+		boolean negative = false;
+		if(i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		byte c = 0;
+		for(; i < to && (c = buffer.get(i)) >= '0' && c <= '9'; i++) {
+			any = true;
+			if(digits < 18) {
+				mantissa = 10 * mantissa + (c - '0');
+				if(mantissa != 0) {
+					digits++;
+				}
+			} else {
+				exponent++;
+			}
+		}
+		if(i < to && c == '.') {
+			for(i++; i < to && (c = buffer.get(i)) >= '0' && c <= '9'; i++) {
+				any = true;
+				if(digits < 18) {
+					mantissa = 10 * mantissa + (c - '0');
+					if(mantissa != 0) {
+						digits++;
+					}
+					exponent--;
+				}
+			}
+		}
+		if(any && i < to && (c == 'e' || c == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if(i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i++;
+			}
+			int e = 0;
+			boolean anyExponent = false;
+			for(; i < to && (c = buffer.get(i)) >= '0' && c <= '9'; i++) {
+				anyExponent = true;
+				if(e < 10000) {
+					e = 10 * e + (c - '0');
+				}
+			}
+			any = anyExponent;
+			exponent += negativeExponent ? -e : e;
+		}
+		if(!any || i != to) {
+			byte[] text = new byte[to - from];
+			for(int k = from; k < to; k++) {
+				text[k - from] = buffer.get(k);
+			}
+			try {
+				return Float.parseFloat(new String(text, UTF8));
+			} catch(NumberFormatException e) {
+				throw malformed(lineOffset);
+			}
+		}
+		double value = mantissa;
+		if(exponent < 0) {
+			value = -exponent < POW10.length ? value / POW10[-exponent] : value * Math.pow(10, exponent);
+		} else if(exponent > 0) {
+			value = exponent < POW10.length ? value * POW10[exponent] : value * Math.pow(10, exponent);
+		}
+		return (float) (negative ? -value : value);
+	}
+}